@@ -0,0 +1,7 @@
+#! /bin/sh
+
+APK_LIST=$1
+OUTPUT_DIR=$2
+ANDROID_JARS=`cat android_platforms.config`
+
+java -Xmx8G -cp CiD.jar lu.uni.snt.cid.KageBatch $APK_LIST $ANDROID_JARS $OUTPUT_DIR
@@ -0,0 +1,40 @@
+package lu.uni.snt.cid;
+
+import lu.uni.snt.cid.api.APIExtractor;
+import lu.uni.snt.cid.ccg.ConditionalCallGraph;
+import lu.uni.snt.cid.ccg.SDKSummaries;
+import lu.uni.snt.cid.utils.CommonUtils;
+
+/**
+ * Everything that belongs to the analysis of a single app (flags, call graph, extracted APIs).
+ *
+ * Nothing in here is shared between two analyses, only the read-only models
+ * (AndroidAPILifeModel, AndroidLibraries, AndroidClasses) are.
+ */
+public class AnalysisContext
+{
+	public String apkPath;
+	public String apkName;
+	public String androidJars;
+
+	public boolean containsSDKVersionChecker = false;
+
+	public int dexCacheHits = 0;
+	public int dexCacheMisses = 0;
+
+	public int inheritedAPIHits = 0;
+	public int inheritedAPIMisses = 0;
+
+	public ConditionalCallGraph ccg = new ConditionalCallGraph();
+	public APIExtractor extractor = new APIExtractor(this);
+
+	//The SDK_INT helpers of the DEX files analyzed so far
+	public SDKSummaries sdkSummaries = new SDKSummaries();
+
+	public AnalysisContext(String apkPath, String androidJars)
+	{
+		this.apkPath = apkPath;
+		this.apkName = CommonUtils.getFileName(apkPath);
+		this.androidJars = androidJars;
+	}
+}
@@ -0,0 +1,154 @@
+package lu.uni.snt.cid;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lu.uni.snt.cid.utils.BloomFilter;
+import lu.uni.snt.cid.utils.PrefixTrie;
+
+/**
+ * A cheap negative check in front of AndroidAPILifeModel.isAndroidAPI(), rejecting most of the app calls without allocating:
+ * the declaring class must start with the package of an Android API class (see PrefixTrie), and the signature
+ * or its compact signature must be in a Bloom filter of the model signatures ('$' being taken as '.', as isAndroidAPI() does).
+ * The Bloom filter is keyed by String.hashCode(), which is cached in the signature strings.
+ * 
+ * It never rejects an Android API; what passes it still has to be checked against the model.
+ */
+public class AndroidAPIFilter
+{
+	private static final int BITS_PER_ENTRY = 10;
+	
+	private PrefixTrie packagePrefixes;
+	private BloomFilter signatures;
+	
+	public AtomicLong checks = new AtomicLong();
+	public AtomicLong rejectedByPrefix = new AtomicLong();
+	public AtomicLong rejectedByBloomFilter = new AtomicLong();
+	//Passed the filter but not an Android API
+	public AtomicLong falsePositives = new AtomicLong();
+	
+	/**
+	 * @param apiSignatures the signatures of the model, e.g., <android.app.Activity: void onCreate(android.os.Bundle)>
+	 * @param compactSignatures the compact signatures matched when the signature is not, e.g., android.app.Activity.onCreate
+	 */
+	public AndroidAPIFilter(Collection<String> apiSignatures, Collection<String> compactSignatures)
+	{
+		Set<String> prefixes = new HashSet<String>();
+		signatures = new BloomFilter(apiSignatures.size() + compactSignatures.size(), BITS_PER_ENTRY);
+		
+		for (String signature : apiSignatures)
+		{
+			prefixes.add("<" + getPackagePrefix(signature.substring(1, signature.indexOf(':'))));
+			signatures.add(signature.hashCode());
+		}
+		for (String compactSignature : compactSignatures)
+		{
+			prefixes.add("<" + getPackagePrefix(compactSignature));
+			signatures.add(compactSignature.hashCode());
+		}
+		
+		packagePrefixes = new PrefixTrie(prefixes);
+	}
+	
+	/**
+	 * @return false if methodSig is certainly not an Android API
+	 */
+	public boolean mightBeAndroidAPI(String methodSig)
+	{
+		checks.incrementAndGet();
+		
+		if (! packagePrefixes.matches(methodSig))
+		{
+			rejectedByPrefix.incrementAndGet();
+			return false;
+		}
+		
+		int hash = -1 == methodSig.indexOf('$') ? methodSig.hashCode() : hash(0, methodSig, 0, methodSig.length());
+		if (signatures.mightContain(hash))
+		{
+			return true;
+		}
+		
+		int posColon = methodSig.indexOf(':');
+		int posStartBracket = methodSig.indexOf('(');
+		if (-1 == posColon || -1 == posStartBracket)
+		{
+			return true;
+		}
+		
+		//Same as MethodSignature.getCompactSignature()
+		int compactHash = hash(0, methodSig, 1, posColon);
+		compactHash = 31 * compactHash + '.';
+		compactHash = hash(compactHash, methodSig, methodSig.lastIndexOf(' ', posStartBracket) + 1, posStartBracket);
+		if (signatures.mightContain(compactHash))
+		{
+			return true;
+		}
+		
+		rejectedByBloomFilter.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * String.hashCode() of str[start, end) with '$' replaced by '.', continuing from hash
+	 */
+	private static int hash(int hash, String str, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			char c = str.charAt(i);
+			if ('$' == c)
+			{
+				c = '.';
+			}
+			
+			hash = 31 * hash + c;
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * The package of cls, i.e., the names before the first one starting with an upper case letter,
+	 * which also prefixes cls written with '$' for its inner classes.
+	 * Without such a name, only the first one is kept.
+	 */
+	public static String getPackagePrefix(String cls)
+	{
+		int end = -1;
+		
+		int start = 0;
+		while (start < cls.length() && ! Character.isUpperCase(cls.charAt(start)))
+		{
+			int posDot = cls.indexOf('.', start);
+			if (-1 == posDot)
+			{
+				end = cls.indexOf('.');
+				break;
+			}
+			
+			end = posDot;
+			start = posDot + 1;
+		}
+		
+		return -1 == end ? "" : cls.substring(0, end);
+	}
+	
+	public void reset()
+	{
+		checks.set(0);
+		rejectedByPrefix.set(0);
+		rejectedByBloomFilter.set(0);
+		falsePositives.set(0);
+	}
+	
+	@Override
+	public String toString()
+	{
+		long passed = checks.get() - rejectedByPrefix.get() - rejectedByBloomFilter.get();
+		return checks.get() + " checks, " + rejectedByPrefix.get() + " rejected by package, " + rejectedByBloomFilter.get() + " by Bloom filter, " + 
+				passed + " passed (" + falsePositives.get() + " false positives)";
+	}
+}
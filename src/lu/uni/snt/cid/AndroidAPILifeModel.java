@@ -7,19 +7,21 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import lu.uni.snt.cid.api.APILife;
+import lu.uni.snt.cid.api.LifetimeCache;
 import lu.uni.snt.cid.utils.CommonUtils;
 import lu.uni.snt.cid.utils.MethodSignature;
-import soot.Scene;
-import soot.SootClass;
-import soot.SootMethod;
 
 public class AndroidAPILifeModel implements Serializable
 {	
@@ -29,6 +31,9 @@ public class AndroidAPILifeModel implements Serializable
 	public Map<String, Set<String>> class2Methods = new HashMap<String, Set<String>>();
 	public Map<String, APILife> method2APILifes = new HashMap<String, APILife>();
 	
+	//method2APILifes with the lifetimes of the super classes already folded in, see flatten()
+	public Map<String, APILife> method2ResolvedAPILifes = null;
+	
 	//For such APIs that contain generic types or contain varargs.
 	public Map<String, Set<String>> compactSig2Methods = new HashMap<String, Set<String>>();
 	
@@ -36,10 +41,23 @@ public class AndroidAPILifeModel implements Serializable
 	public Map<String, Set<String>> compactSig2Methods_gt = new HashMap<String, Set<String>>();
 	public Map<String, Set<String>> compactSig2Methods_varargs = new HashMap<String, Set<String>>();
 	
-	public Map<String, String> method2inheritedAPIs = new HashMap<String, String>();
+	//The highest API level of the model (0 if not known yet, see getLatestAPILevel()), and its number of incremental updates
+	public int latestAPILevel = 0;
+	public int revision = 0;
 	
 	private static AndroidAPILifeModel instance = null;
-	private static String modelPath = "res/android_api_model.txt";
+	public static String modelPath = "res/android_api_model.txt";
+	public static String compiledModelPath = "res/android_api_model.bin";
+	
+	//Set if the model is backed by the compiled file (see CompiledAPILifeModel)
+	private transient CompiledAPILifeModel compiled = null;
+	
+	//Memo of getLifetime(), shared by all the analyses, created on first use
+	private transient volatile LifetimeCache lifetimeCache = null;
+	
+	//Check isAndroidAPI() queries against the AndroidAPIFilter first, built on first use
+	public static boolean usePreFilter = true;
+	private transient volatile AndroidAPIFilter filter = null;
 	
 	private String lifetimeAPIPath = "res/android_api_lifetime.txt";
 	private String genericAPIPath = "res/android_api_generictype.txt";
@@ -50,65 +68,147 @@ public class AndroidAPILifeModel implements Serializable
 	{
 		if (null == instance)
 		{
-			File model = new File(modelPath);
-			if (model.exists())
+			if (new File(compiledModelPath).exists())
 			{
 				try
 				{
-					FileInputStream fis = new FileInputStream(modelPath);
-					ObjectInputStream ois = new ObjectInputStream(fis);
-					
-					instance = (AndroidAPILifeModel) ois.readObject();
-					ois.close();
-					fis.close();
+					instance = new AndroidAPILifeModel(new CompiledAPILifeModel(compiledModelPath));
 				}
-				catch (IOException | ClassNotFoundException ex)
+				catch (IOException ex)
 				{
 					ex.printStackTrace();
 				}
 			}
-			else
+			
+			if (null == instance)
 			{
-				instance = new AndroidAPILifeModel();
-				instance.serialize();
+				instance = load();
 			}
 			
-			Set<String> genericAPIs = CommonUtils.loadFile(instance.genericAPIPath);
-			for (String genericAPI : genericAPIs)
+			Config.LATEST_API_LEVEL = instance.getLatestAPILevel();
+		}
+
+		return instance;
+	}
+	
+	/**
+	 * Load the in-heap model (deserialized from res/android_api_model.txt, or built from the API files),
+	 * ignoring the compiled one.
+	 */
+	public static AndroidAPILifeModel load()
+	{
+		AndroidAPILifeModel model = null;
+		boolean built = false;
+		
+		File modelFile = new File(modelPath);
+		if (modelFile.exists())
+		{
+			try
 			{
-				String compactSig = new MethodSignature(genericAPI).getCompactSignature();
-				CommonUtils.put(instance.compactSig2Methods, compactSig, genericAPI);
-				CommonUtils.put(instance.compactSig2Methods_gt, compactSig, genericAPI);
+				FileInputStream fis = new FileInputStream(modelPath);
+				ObjectInputStream ois = new ObjectInputStream(fis);
+				
+				model = (AndroidAPILifeModel) ois.readObject();
+				ois.close();
+				fis.close();
 			}
-			
-			Set<String> varargsAPIs = CommonUtils.loadFile(instance.varargsAPIPath);
-			for (String varargsAPI : varargsAPIs)
+			catch (IOException | ClassNotFoundException ex)
 			{
-				String compactSig = new MethodSignature(varargsAPI).getCompactSignature();
-				CommonUtils.put(instance.compactSig2Methods, compactSig, varargsAPI);
-				CommonUtils.put(instance.compactSig2Methods_varargs, compactSig, varargsAPI);
+				ex.printStackTrace();
 			}
-			
-			//CommonUtils.put(instance.compactSig2Methods, instance.compactSig2Methods_gt);
-			//CommonUtils.put(instance.compactSig2Methods, instance.compactSig2Methods_varargs);
 		}
-
-		return instance;
+		else
+		{
+			model = new AndroidAPILifeModel();
+			built = true;
+		}
+		
+		Set<String> genericAPIs = CommonUtils.loadFile(model.genericAPIPath);
+		for (String genericAPI : genericAPIs)
+		{
+			String compactSig = new MethodSignature(genericAPI).getCompactSignature();
+			CommonUtils.put(model.compactSig2Methods, compactSig, genericAPI);
+			CommonUtils.put(model.compactSig2Methods_gt, compactSig, genericAPI);
+		}
+		
+		Set<String> varargsAPIs = CommonUtils.loadFile(model.varargsAPIPath);
+		for (String varargsAPI : varargsAPIs)
+		{
+			String compactSig = new MethodSignature(varargsAPI).getCompactSignature();
+			CommonUtils.put(model.compactSig2Methods, compactSig, varargsAPI);
+			CommonUtils.put(model.compactSig2Methods_varargs, compactSig, varargsAPI);
+		}
+		
+		//CommonUtils.put(model.compactSig2Methods, model.compactSig2Methods_gt);
+		//CommonUtils.put(model.compactSig2Methods, model.compactSig2Methods_varargs);
+		
+		if (null == model.method2ResolvedAPILifes)
+		{
+			model.flatten();
+		}
+		if (0 == model.latestAPILevel)
+		{
+			for (APILife apiLife : model.method2APILifes.values())
+			{
+				model.latestAPILevel = Math.max(model.latestAPILevel, apiLife.getMaxAPILevel());
+			}
+		}
+		if (built)
+		{
+			model.serialize();
+		}
+		
+		return model;
+	}
+	
+	/**
+	 * @return the in-heap form of the compiled model (see CompiledAPILifeModel.decompile())
+	 */
+	public static AndroidAPILifeModel decompile(CompiledAPILifeModel compiled)
+	{
+		AndroidAPILifeModel model = new AndroidAPILifeModel((CompiledAPILifeModel) null);
+		compiled.decompile(model);
+		
+		return model;
+	}
+	
+	/**
+	 * All the queries are answered by the memory-mapped model, the maps stay empty.
+	 */
+	private AndroidAPILifeModel(CompiledAPILifeModel compiled)
+	{
+		this.compiled = compiled;
 	}
 	
 	private AndroidAPILifeModel()
 	{
-		File androidAPIsDir = new File(androidAPIsDirPath);
-		for (File file : androidAPIsDir.listFiles())
+		File[] apiFiles = new File(androidAPIsDirPath).listFiles();
+		Arrays.sort(apiFiles);
+		
+		long start = System.currentTimeMillis();
+		ConcurrentMap<String, Set<String>> superClasses = new ConcurrentHashMap<String, Set<String>>();
+		ConcurrentMap<String, Set<String>> methods = new ConcurrentHashMap<String, Set<String>>();
+		
+		List<FrameworkBase> frameworkBases = null;
+		try
 		{
-			FrameworkBase fb = new FrameworkBase();
-			
-			fb.load(file.getAbsolutePath());
-			
-			CommonUtils.put(class2SuperClasses, fb.class2SuperClasses);
-			CommonUtils.put(class2Methods, fb.class2Methods);
+			frameworkBases = FrameworkBase.loadAll(apiFiles, superClasses, methods);
+		}
+		catch (IOException ex)
+		{
+			//A model missing some API levels would silently give wrong lifetimes
+			throw new RuntimeException("Cannot load the API files of " + androidAPIsDirPath, ex);
+		}
+		
+		for (FrameworkBase fb : frameworkBases)
+		{
+			System.out.println("Parsed " + CommonUtils.getFileName(fb.path) + ": " + fb.class2SuperClasses.size() + " classes in " + fb.loadTime + " ms");
 		}
 		
+		CommonUtils.put(class2SuperClasses, superClasses);
+		CommonUtils.put(class2Methods, methods);
+		System.out.println("Parsed " + apiFiles.length + " API files in " + (System.currentTimeMillis() - start) + " ms");
+		
 		Set<String> lines = CommonUtils.loadFile(lifetimeAPIPath);
 		for (String line : lines)
 		{
@@ -117,11 +217,196 @@ public class AndroidAPILifeModel implements Serializable
 		}
 	}
 	
+	public LifetimeCache getLifetimeCache()
+	{
+		if (null == lifetimeCache)
+		{
+			synchronized (this)
+			{
+				if (null == lifetimeCache)
+				{
+					lifetimeCache = new LifetimeCache(Config.lifetimeCacheSize);
+				}
+			}
+		}
+		
+		return lifetimeCache;
+	}
+	
+	public AndroidAPIFilter getFilter()
+	{
+		if (null == filter)
+		{
+			synchronized (this)
+			{
+				if (null == filter)
+				{
+					List<String> signatures = new ArrayList<String>();
+					Set<String> compactSignatures = new HashSet<String>();
+					if (null != compiled)
+					{
+						for (int id = 0; id < compiled.size(); id++)
+						{
+							byte flags = compiled.getFlags(id);
+							if (0 != (flags & CompiledAPILifeModel.FLAG_LIFETIME))
+							{
+								signatures.add(compiled.getString(id));
+							}
+							if (0 != (flags & (CompiledAPILifeModel.FLAG_GENERIC | CompiledAPILifeModel.FLAG_VARARGS)))
+							{
+								compactSignatures.add(compiled.getString(id));
+							}
+						}
+					}
+					else
+					{
+						signatures.addAll(method2APILifes.keySet());
+						compactSignatures.addAll(compactSig2Methods_gt.keySet());
+						compactSignatures.addAll(compactSig2Methods_varargs.keySet());
+					}
+					
+					filter = new AndroidAPIFilter(signatures, compactSignatures);
+				}
+			}
+		}
+		
+		return filter;
+	}
+	
+	public int getLatestAPILevel()
+	{
+		return null != compiled ? compiled.getLatestAPILevel() : latestAPILevel;
+	}
+	
+	public int getRevision()
+	{
+		return null != compiled ? compiled.getRevision() : revision;
+	}
+	
+	/**
+	 * Add the APIs of one more API level (the signatures of res/android-apis-refinement/android-N.txt)
+	 * and its class hierarchy (as loaded by FrameworkBase, may be empty) to the in-heap model.
+	 * Only the APIs of the classes whose lifetimes or super classes changed, and of their subclasses,
+	 * are resolved again (see flatten()); the revision is bumped.
+	 * 
+	 * @return the number of APIs resolved again
+	 */
+	public int update(int level, Set<String> methods, Map<String, Set<String>> superClasses)
+	{
+		Set<String> changedClasses = new HashSet<String>();
+		
+		for (String methodSig : methods)
+		{
+			APILife apiLife = method2APILifes.get(methodSig);
+			if (null == apiLife)
+			{
+				method2APILifes.put(methodSig, new APILife(methodSig, level, level));
+				
+				MethodSignature ms = new MethodSignature(methodSig);
+				String compactSig = ms.getCompactSignature();
+				if (ms.containsGenericType())
+				{
+					CommonUtils.put(compactSig2Methods, compactSig, methodSig);
+					CommonUtils.put(compactSig2Methods_gt, compactSig, methodSig);
+				}
+				if (ms.containsVarargs())
+				{
+					CommonUtils.put(compactSig2Methods, compactSig, methodSig);
+					CommonUtils.put(compactSig2Methods_varargs, compactSig, methodSig);
+				}
+			}
+			else if (level < apiLife.getMinAPILevel())
+			{
+				apiLife.setMinAPILevel(level);
+			}
+			else if (level > apiLife.getMaxAPILevel())
+			{
+				apiLife.setMaxAPILevel(level);
+			}
+			else
+			{
+				continue;
+			}
+			
+			changedClasses.add(new MethodSignature(methodSig).getCls());
+		}
+		
+		for (Map.Entry<String, Set<String>> entry : superClasses.entrySet())
+		{
+			Set<String> current = class2SuperClasses.get(entry.getKey());
+			if (null == current)
+			{
+				current = new HashSet<String>();
+				class2SuperClasses.put(entry.getKey(), current);
+			}
+			
+			if (current.addAll(entry.getValue()))
+			{
+				changedClasses.add(entry.getKey());
+			}
+		}
+		
+		latestAPILevel = Math.max(getLatestAPILevel(), level);
+		revision++;
+		filter = null;
+		lifetimeCache = null;
+		
+		if (null == method2ResolvedAPILifes)
+		{
+			flatten();
+			return method2APILifes.size();
+		}
+		
+		//The resolved lifetime of an API depends on its class and all the super classes of it
+		Map<String, Set<String>> class2SubClasses = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : class2SuperClasses.entrySet())
+		{
+			for (String superCls : entry.getValue())
+			{
+				CommonUtils.put(class2SubClasses, superCls, entry.getKey());
+			}
+		}
+		
+		Set<String> affectedClasses = new HashSet<String>(changedClasses);
+		LinkedList<String> workList = new LinkedList<String>(changedClasses);
+		while (! workList.isEmpty())
+		{
+			Set<String> subClasses = class2SubClasses.get(workList.removeFirst());
+			if (null != subClasses)
+			{
+				for (String subCls : subClasses)
+				{
+					if (affectedClasses.add(subCls))
+					{
+						workList.add(subCls);
+					}
+				}
+			}
+		}
+		
+		int resolved = 0;
+		for (String methodSig : method2APILifes.keySet())
+		{
+			if (affectedClasses.contains(new MethodSignature(methodSig).getCls()))
+			{
+				method2ResolvedAPILifes.put(methodSig, refine(new APILife(methodSig, -1, -1), methodSig));
+				resolved++;
+			}
+		}
+		
+		return resolved;
+	}
+	
 	public boolean containsGenericType(String methodSig)
 	{
+		if (null != compiled)
+		{
+			return compiled.containsGenericType(methodSig);
+		}
+		
 		methodSig = methodSig.replace("$", ".");
 		
-		MethodSignature ms = new MethodSignature(methodSig);
+		MethodSignature ms = MethodSignature.of(methodSig);
 		String compactSig = ms.getCompactSignature();
 		
 		if (compactSig2Methods_gt.containsKey(compactSig))
@@ -134,9 +419,14 @@ public class AndroidAPILifeModel implements Serializable
 	
 	public boolean containsVarargs(String methodSig)
 	{
+		if (null != compiled)
+		{
+			return compiled.containsVarargs(methodSig);
+		}
+		
 		methodSig = methodSig.replace("$", ".");
 		
-		MethodSignature ms = new MethodSignature(methodSig);
+		MethodSignature ms = MethodSignature.of(methodSig);
 		String compactSig = ms.getCompactSignature();
 		
 		if (compactSig2Methods_varargs.containsKey(compactSig))
@@ -156,7 +446,24 @@ public class AndroidAPILifeModel implements Serializable
 	 * @return
 	 */
 	public boolean isAndroidAPI(String methodSig)
-	{	
+	{
+		AndroidAPIFilter filter = usePreFilter ? getFilter() : null;
+		if (null != filter && ! filter.mightBeAndroidAPI(methodSig))
+		{
+			return false;
+		}
+		
+		boolean isAndroidAPI = null != compiled ? compiled.isAndroidAPI(methodSig) : lookup(methodSig);
+		if (null != filter && ! isAndroidAPI)
+		{
+			filter.falsePositives.incrementAndGet();
+		}
+		
+		return isAndroidAPI;
+	}
+	
+	private boolean lookup(String methodSig)
+	{
 		methodSig = methodSig.replace("$", ".");
 		
 		if (method2APILifes.containsKey(methodSig))
@@ -165,7 +472,7 @@ public class AndroidAPILifeModel implements Serializable
 		}
 		else 
 		{	
-			String compatMethodSig = new MethodSignature(methodSig).getCompactSignature();
+			String compatMethodSig = MethodSignature.of(methodSig).getCompactSignature();
 			
 			if (compactSig2Methods_gt.containsKey(compatMethodSig))
 			{
@@ -187,56 +494,6 @@ public class AndroidAPILifeModel implements Serializable
 		return false;
 	}
 	
-	public boolean isInheritedAndroidAPI(String methodSig)
-	{
-		try
-		{
-			SootMethod sootMethod = Scene.v().getMethod(methodSig);
-			
-			SootClass sootClass = sootMethod.getDeclaringClass();
-			
-			List<SootClass> workList = new LinkedList<SootClass>();
-			if (sootClass.hasSuperclass())
-			{
-				workList.add(sootClass.getSuperclass());
-			}
-			for (Iterator<SootClass> iter = sootClass.getInterfaces().snapshotIterator(); iter.hasNext(); )
-			{
-				workList.add(iter.next());
-			}
-			
-			while (! workList.isEmpty())
-			{
-				sootClass = workList.remove(0);
-				
-				String newMethodSig = methodSig.replace("<" + sootMethod.getDeclaringClass().getName() + ":", "<" + sootClass.getName() + ":");
-				
-				if (isAndroidAPI(newMethodSig))
-				{
-					method2inheritedAPIs.put(methodSig, newMethodSig);
-					return true;
-				}
-				else
-				{
-					if (sootClass.hasSuperclass())
-					{
-						workList.add(sootClass.getSuperclass());
-					}
-					for (Iterator<SootClass> iter = sootClass.getInterfaces().snapshotIterator(); iter.hasNext(); )
-					{
-						workList.add(iter.next());
-					}
-				}
-			}
-		}
-		catch (Exception ex)
-		{
-			//TODO:
-		}
-		
-		return false;
-	}
-	
 	public void serialize()
 	{
 		try 
@@ -262,49 +519,120 @@ public class AndroidAPILifeModel implements Serializable
 	 * @return
 	 */
 	public APILife getLifetime(String methodSignature)
+	{
+		LifetimeCache cache = getLifetimeCache();
+		
+		APILife apiLife = cache.get(methodSignature);
+		if (null == apiLife)
+		{
+			apiLife = null != compiled ? compiled.getLifetime(methodSignature) : resolveLifetime(methodSignature);
+			cache.put(methodSignature, apiLife);
+		}
+		
+		return apiLife;
+	}
+	
+	private APILife resolveLifetime(String methodSignature)
 	{
 		methodSignature = methodSignature.replace("$", ".");
 		
+		APILife resolved = method2ResolvedAPILifes.get(methodSignature);
+		if (null != resolved)
+		{
+			return new APILife(methodSignature, resolved.getMinAPILevel(), resolved.getMaxAPILevel());
+		}
+		
 		APILife apiLife = new APILife(methodSignature, -1, -1);
 		
-		MethodSignature sig = new MethodSignature(methodSignature);
+		MethodSignature sig = MethodSignature.of(methodSignature);
 		
-		if (! method2APILifes.containsKey(methodSignature))
+		Set<String> methods = compactSig2Methods.get(sig.getCompactSignature());
+		if (null != methods)
 		{
-			Set<String> methods = compactSig2Methods.get(sig.getCompactSignature());
-			if (null != methods)
+			for (String methodSig : methods)
 			{
-				for (String methodSig : methods)
+				MethodSignature ms = new MethodSignature(methodSig);
+				if (ms.containsGenericType())
 				{
-					MethodSignature ms = new MethodSignature(methodSig);
-					if (ms.containsGenericType())
+					if (Config.DEBUG)
+						System.out.println("[DEBUG]: GT Found, " + methodSig + "-->" + methodSignature);
+				}
+				else
+				{
+					if (Config.DEBUG)
+						System.out.println("[DEBUG]: Varargs Found, " + methodSig + "-->" + methodSignature);
+				}
+				
+				if (ms.containsGenericReturnType() ||
+					ms.getReturnType().equals(sig.getReturnType()))
+				{
+					resolved = method2ResolvedAPILifes.get(methodSig);
+					if (null != resolved)
 					{
-						if (Config.DEBUG)
-							System.out.println("[DEBUG]: GT Found, " + methodSig + "-->" + methodSignature);
-						//refine(apiLife, methodSig);
+						merge(apiLife, resolved);
 					}
 					else
-					{
-						if (Config.DEBUG)
-							System.out.println("[DEBUG]: Varargs Found, " + methodSig + "-->" + methodSignature);
-					}
-					
-					if (ms.containsGenericReturnType() ||
-						ms.getReturnType().equals(sig.getReturnType()))
 					{
 						refine(apiLife, methodSig);
 					}
-					
-					// To be more precise: ms.containsGenericType() && ms.containsVarargs()
 				}
+				
+				// To be more precise: ms.containsGenericType() && ms.containsVarargs()
 			}
 		}
-		else
+		
+		return apiLife;
+	}
+	
+	/**
+	 * Resolve, once for all, the lifetime of every API with the ones it inherits (see refine),
+	 * so that getLifetime() is a single lookup.
+	 */
+	public void flatten()
+	{
+		method2ResolvedAPILifes = new HashMap<String, APILife>();
+		for (String methodSig : method2APILifes.keySet())
 		{
-			refine(apiLife, methodSignature);
+			method2ResolvedAPILifes.put(methodSig, refine(new APILife(methodSig, -1, -1), methodSig));
+		}
+	}
+	
+	/**
+	 * Check the flattened lifetimes against the recursive resolution.
+	 * 
+	 * @return the number of APIs for which they differ
+	 */
+	public int verify()
+	{
+		int mismatches = 0;
+		for (String methodSig : method2APILifes.keySet())
+		{
+			APILife expected = refine(new APILife(methodSig, -1, -1), methodSig);
+			APILife actual = getLifetime(methodSig);
+			
+			if (expected.getMinAPILevel() != actual.getMinAPILevel() || expected.getMaxAPILevel() != actual.getMaxAPILevel())
+			{
+				System.out.println("Mismatch: " + expected + " vs " + actual);
+				mismatches++;
+			}
 		}
 		
-		return apiLife;
+		return mismatches;
+	}
+	
+	/**
+	 * Fold an already resolved lifetime into current, as refine() does.
+	 */
+	private void merge(APILife current, APILife target)
+	{
+		if (current.getMinAPILevel() == -1 || current.getMinAPILevel() > target.getMinAPILevel())
+		{
+			current.setMinAPILevel(target.getMinAPILevel());
+		}
+		if (current.getMinAPILevel() == -1 || current.getMaxAPILevel() < target.getMaxAPILevel())
+		{
+			current.setMaxAPILevel(target.getMaxAPILevel());
+		}
 	}
 	
 	public APILife refine(APILife current, String methodSignature)
@@ -324,7 +652,7 @@ public class AndroidAPILifeModel implements Serializable
 		}
 		
 		
-		MethodSignature sig = new MethodSignature(methodSignature);
+		MethodSignature sig = MethodSignature.of(methodSignature);
 		String cls = sig.getCls();
 		if (class2SuperClasses.containsKey(cls))
 		{
@@ -7,12 +7,17 @@ public class AndroidClasses
 {
 	static Set<String> androidClasses = null;
 	
-	public static boolean isAndroidClass(String cls)
+	public static void load()
 	{
 		if (null == androidClasses)
 		{
 			androidClasses = CommonUtils.loadFile("res/android-classes.txt");
 		}
+	}
+	
+	public static boolean isAndroidClass(String cls)
+	{
+		load();
 		
 		if (androidClasses.contains(cls))
 		{
@@ -2,26 +2,28 @@ package lu.uni.snt.cid;
 import java.util.Set;
 
 import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.PrefixTrie;
 
 public class AndroidLibraries 
 {
 	static Set<String> androidLibraries = null;
 	
-	public static boolean isAndroidLibrary(String cls)
+	//The prefixes of androidLibraries, compiled
+	static PrefixTrie libraryPrefixes = null;
+	
+	public static synchronized void load()
 	{
 		if (null == androidLibraries)
 		{
 			androidLibraries = CommonUtils.loadFile("res/android-libraries.txt");
+			libraryPrefixes = new PrefixTrie(androidLibraries);
 		}
+	}
+	
+	public static boolean isAndroidLibrary(String cls)
+	{
+		load();
 		
-		for (String prefix : androidLibraries)
-		{
-			if (cls.startsWith(prefix))
-			{
-				return true;
-			}
-		}
-		
-		return false;
+		return libraryPrefixes.matches(cls);
 	}
 }
@@ -0,0 +1,594 @@
+package lu.uni.snt.cid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import lu.uni.snt.cid.api.APILife;
+import lu.uni.snt.cid.utils.MethodSignature;
+
+/**
+ * Read-only, memory-mapped form of the AndroidAPILifeModel (see AndroidAPILifeModelCompiler).
+ *
+ * Layout (big-endian):
+ *   magic, version, N (strings), S (super links), B (bucket links), latest API level, revision
+ *   int[N+1] string offsets | int[N+1] super offsets | int[S] super ids | int[N+1] bucket offsets | int[B] bucket ids
+ *   byte[N] flags | byte[N] min levels | byte[N] max levels | byte[N] resolved min levels | byte[N] resolved max levels
+ *   UTF-8 string data
+ *
+ * Every string of the model (method signatures, class names, compact signatures) is stored once,
+ * sorted, and identified by its index; all the other sections are indexed by that id.
+ * The resolved levels are the ones of AndroidAPILifeModel.method2ResolvedAPILifes, i.e., with the
+ * inherited lifetimes already folded in.
+ * Lookups binary search the string table in place, so entries are never turned into Java strings
+ * unless they are returned (super classes, compact signature buckets).
+ * The revision is bumped by every incremental update of the model (see AndroidAPILifeModelUpdater).
+ */
+public class CompiledAPILifeModel
+{
+	public static final int MAGIC = 0x4B414745; //"KAGE"
+	public static final int VERSION = 3;
+
+	public static final byte FLAG_LIFETIME = 1;
+	public static final byte FLAG_GENERIC = 2;
+	public static final byte FLAG_VARARGS = 4;
+
+	private static final int HEADER_SIZE = 7 * 4;
+
+	private MappedByteBuffer buffer;
+
+	private int stringCount;
+	private int latestAPILevel;
+	private int revision;
+	private int stringOffsetsPos;
+	private int superOffsetsPos;
+	private int superIdsPos;
+	private int bucketOffsetsPos;
+	private int bucketIdsPos;
+	private int flagsPos;
+	private int minLevelsPos;
+	private int maxLevelsPos;
+	private int resolvedMinLevelsPos;
+	private int resolvedMaxLevelsPos;
+	private int stringDataPos;
+
+	public CompiledAPILifeModel(String path) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			file.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC)
+		{
+			throw new IOException(path + " is not a compiled API lifetime model");
+		}
+		if (buffer.getInt(4) != VERSION)
+		{
+			throw new IOException(path + " has version " + buffer.getInt(4) + ", expected " + VERSION + ". Please recompile it.");
+		}
+
+		stringCount = buffer.getInt(8);
+		int superLinks = buffer.getInt(12);
+		int bucketLinks = buffer.getInt(16);
+		latestAPILevel = buffer.getInt(20);
+		revision = buffer.getInt(24);
+
+		stringOffsetsPos = HEADER_SIZE;
+		superOffsetsPos = stringOffsetsPos + 4 * (stringCount + 1);
+		superIdsPos = superOffsetsPos + 4 * (stringCount + 1);
+		bucketOffsetsPos = superIdsPos + 4 * superLinks;
+		bucketIdsPos = bucketOffsetsPos + 4 * (stringCount + 1);
+		flagsPos = bucketIdsPos + 4 * bucketLinks;
+		minLevelsPos = flagsPos + stringCount;
+		maxLevelsPos = minLevelsPos + stringCount;
+		resolvedMinLevelsPos = maxLevelsPos + stringCount;
+		resolvedMaxLevelsPos = resolvedMinLevelsPos + stringCount;
+		stringDataPos = resolvedMaxLevelsPos + stringCount;
+	}
+
+	public int size()
+	{
+		return stringCount;
+	}
+
+	public int getLatestAPILevel()
+	{
+		return latestAPILevel;
+	}
+
+	public int getRevision()
+	{
+		return revision;
+	}
+
+	public boolean containsGenericType(String methodSig)
+	{
+		return hasFlag(MethodSignature.of(methodSig.replace('$', '.')).getCompactSignature(), FLAG_GENERIC);
+	}
+
+	public boolean containsVarargs(String methodSig)
+	{
+		return hasFlag(MethodSignature.of(methodSig.replace('$', '.')).getCompactSignature(), FLAG_VARARGS);
+	}
+
+	public boolean isAndroidAPI(String methodSig)
+	{
+		methodSig = methodSig.replace('$', '.');
+
+		if (hasFlag(methodSig, FLAG_LIFETIME))
+		{
+			return true;
+		}
+
+		int id = find(MethodSignature.of(methodSig).getCompactSignature());
+
+		return -1 != id && 0 != (flags(id) & (FLAG_GENERIC | FLAG_VARARGS));
+	}
+
+	/**
+	 * Same semantics as AndroidAPILifeModel.getLifetime(String)
+	 */
+	public APILife getLifetime(String methodSignature)
+	{
+		methodSignature = methodSignature.replace('$', '.');
+
+		APILife apiLife = new APILife(methodSignature, -1, -1);
+
+		int id = find(methodSignature);
+		if (-1 != id && 0 != (flags(id) & FLAG_LIFETIME))
+		{
+			apiLife.setMinAPILevel(buffer.get(resolvedMinLevelsPos + id));
+			apiLife.setMaxAPILevel(buffer.get(resolvedMaxLevelsPos + id));
+			return apiLife;
+		}
+
+		MethodSignature sig = MethodSignature.of(methodSignature);
+		int compactId = find(sig.getCompactSignature());
+		if (-1 != compactId)
+		{
+			int end = buffer.getInt(bucketOffsetsPos + 4 * (compactId + 1));
+			for (int i = buffer.getInt(bucketOffsetsPos + 4 * compactId); i < end; i++)
+			{
+				int methodId = buffer.getInt(bucketIdsPos + 4 * i);
+				String methodSig = getString(methodId);
+
+				MethodSignature ms = new MethodSignature(methodSig);
+				if (ms.containsGenericReturnType() ||
+					ms.getReturnType().equals(sig.getReturnType()))
+				{
+					if (0 != (flags(methodId) & FLAG_LIFETIME))
+					{
+						merge(apiLife, buffer.get(resolvedMinLevelsPos + methodId), buffer.get(resolvedMaxLevelsPos + methodId));
+					}
+					else
+					{
+						refine(apiLife, methodSig);
+					}
+				}
+			}
+		}
+
+		return apiLife;
+	}
+
+	private APILife refine(APILife current, String methodSignature)
+	{
+		merge(current, find(methodSignature));
+
+		String cls = MethodSignature.of(methodSignature).getCls();
+		for (String superCls : getSuperClasses(cls))
+		{
+			current = refine(current, cls, superCls, methodSignature);
+		}
+
+		return current;
+	}
+
+	private APILife refine(APILife current, String currentCls, String superCls, String methodSignature)
+	{
+		String newMethodSig = methodSignature.replace(currentCls + ":", superCls + ":");
+
+		merge(current, find(newMethodSig));
+
+		for (String superSuperCls : getSuperClasses(superCls))
+		{
+			current = refine(current, currentCls, superSuperCls, newMethodSig);
+		}
+
+		return current;
+	}
+
+	private void merge(APILife current, int id)
+	{
+		if (-1 != id && 0 != (flags(id) & FLAG_LIFETIME))
+		{
+			merge(current, buffer.get(minLevelsPos + id), buffer.get(maxLevelsPos + id));
+		}
+	}
+
+	private void merge(APILife current, int min, int max)
+	{
+		if (current.getMinAPILevel() == -1 || current.getMinAPILevel() > min)
+		{
+			current.setMinAPILevel(min);
+		}
+		if (current.getMinAPILevel() == -1 || current.getMaxAPILevel() < max)
+		{
+			current.setMaxAPILevel(max);
+		}
+	}
+
+	public List<String> getSuperClasses(String cls)
+	{
+		List<String> superClasses = new ArrayList<String>();
+
+		int id = find(cls);
+		if (-1 != id)
+		{
+			int end = buffer.getInt(superOffsetsPos + 4 * (id + 1));
+			for (int i = buffer.getInt(superOffsetsPos + 4 * id); i < end; i++)
+			{
+				superClasses.add(getString(buffer.getInt(superIdsPos + 4 * i)));
+			}
+		}
+
+		return superClasses;
+	}
+
+	private boolean hasFlag(String str, byte flag)
+	{
+		int id = find(str);
+		return -1 != id && 0 != (flags(id) & flag);
+	}
+
+	/**
+	 * @return the FLAG_* of the string id
+	 */
+	public byte getFlags(int id)
+	{
+		return flags(id);
+	}
+
+	private byte flags(int id)
+	{
+		return buffer.get(flagsPos + id);
+	}
+
+	public String getString(int id)
+	{
+		int start = buffer.getInt(stringOffsetsPos + 4 * id);
+		int end = buffer.getInt(stringOffsetsPos + 4 * (id + 1));
+
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = buffer.get(stringDataPos + start + i);
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Binary search of the string table, comparing in place against the mapped bytes.
+	 *
+	 * @return the id of str, or -1
+	 */
+	public int find(String str)
+	{
+		byte[] utf8 = isASCII(str) ? null : str.getBytes(StandardCharsets.UTF_8);
+
+		int low = 0;
+		int high = stringCount - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = null == utf8 ? compareASCII(mid, str) : compare(mid, utf8);
+
+			if (cmp < 0)
+			{
+				low = mid + 1;
+			}
+			else if (cmp > 0)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	private int compareASCII(int id, String str)
+	{
+		int start = stringDataPos + buffer.getInt(stringOffsetsPos + 4 * id);
+		int length = stringDataPos + buffer.getInt(stringOffsetsPos + 4 * (id + 1)) - start;
+
+		int n = Math.min(length, str.length());
+		for (int i = 0; i < n; i++)
+		{
+			int diff = (buffer.get(start + i) & 0xFF) - str.charAt(i);
+			if (0 != diff)
+			{
+				return diff;
+			}
+		}
+
+		return length - str.length();
+	}
+
+	private int compare(int id, byte[] utf8)
+	{
+		int start = stringDataPos + buffer.getInt(stringOffsetsPos + 4 * id);
+		int length = stringDataPos + buffer.getInt(stringOffsetsPos + 4 * (id + 1)) - start;
+
+		int n = Math.min(length, utf8.length);
+		for (int i = 0; i < n; i++)
+		{
+			int diff = (buffer.get(start + i) & 0xFF) - (utf8[i] & 0xFF);
+			if (0 != diff)
+			{
+				return diff;
+			}
+		}
+
+		return length - utf8.length;
+	}
+
+	private static boolean isASCII(String str)
+	{
+		for (int i = 0; i < str.length(); i++)
+		{
+			if (str.charAt(i) >= 0x80)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Fill the maps of the (empty) in-heap model with the content of the compiled one, the inverse of compile().
+	 * As only their keys are used, compactSig2Methods_gt and compactSig2Methods_varargs get the whole bucket
+	 * of their compact signatures; class2Methods is not part of the compiled model and stays empty.
+	 */
+	public void decompile(AndroidAPILifeModel model)
+	{
+		model.method2ResolvedAPILifes = new HashMap<String, APILife>();
+
+		for (int id = 0; id < stringCount; id++)
+		{
+			byte flags = flags(id);
+			int superStart = buffer.getInt(superOffsetsPos + 4 * id);
+			int superEnd = buffer.getInt(superOffsetsPos + 4 * (id + 1));
+			int bucketStart = buffer.getInt(bucketOffsetsPos + 4 * id);
+			int bucketEnd = buffer.getInt(bucketOffsetsPos + 4 * (id + 1));
+
+			if (0 == flags && superStart == superEnd && bucketStart == bucketEnd)
+			{
+				continue;
+			}
+
+			String str = getString(id);
+
+			if (0 != (flags & FLAG_LIFETIME))
+			{
+				model.method2APILifes.put(str, new APILife(str, buffer.get(minLevelsPos + id), buffer.get(maxLevelsPos + id)));
+				model.method2ResolvedAPILifes.put(str, new APILife(str, buffer.get(resolvedMinLevelsPos + id), buffer.get(resolvedMaxLevelsPos + id)));
+			}
+
+			if (superStart != superEnd)
+			{
+				model.class2SuperClasses.put(str, new HashSet<String>(getSuperClasses(str)));
+			}
+
+			if (bucketStart != bucketEnd)
+			{
+				Set<String> methods = new HashSet<String>();
+				for (int i = bucketStart; i < bucketEnd; i++)
+				{
+					methods.add(getString(buffer.getInt(bucketIdsPos + 4 * i)));
+				}
+
+				model.compactSig2Methods.put(str, methods);
+				if (0 != (flags & FLAG_GENERIC))
+				{
+					model.compactSig2Methods_gt.put(str, new HashSet<String>(methods));
+				}
+				if (0 != (flags & FLAG_VARARGS))
+				{
+					model.compactSig2Methods_varargs.put(str, new HashSet<String>(methods));
+				}
+			}
+		}
+
+		model.latestAPILevel = latestAPILevel;
+		model.revision = revision;
+	}
+
+	/**
+	 * Write the compiled form of model into path.
+	 */
+	public static void compile(AndroidAPILifeModel model, String path) throws IOException
+	{
+		Set<String> strings = new TreeSet<String>();
+		strings.addAll(model.method2APILifes.keySet());
+		for (Map.Entry<String, Set<String>> entry : model.class2SuperClasses.entrySet())
+		{
+			if (null != entry.getValue() && ! entry.getValue().isEmpty())
+			{
+				strings.add(entry.getKey());
+				strings.addAll(entry.getValue());
+			}
+		}
+		for (Map.Entry<String, Set<String>> entry : model.compactSig2Methods.entrySet())
+		{
+			strings.add(entry.getKey());
+			strings.addAll(entry.getValue());
+		}
+
+		//Sort on the UTF-8 bytes, the order used by find()
+		byte[][] data = new byte[strings.size()][];
+		int n = 0;
+		for (String str : strings)
+		{
+			data[n++] = str.getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(data, new Comparator<byte[]>()
+		{
+			@Override
+			public int compare(byte[] b1, byte[] b2)
+			{
+				int length = Math.min(b1.length, b2.length);
+				for (int i = 0; i < length; i++)
+				{
+					int diff = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+					if (0 != diff)
+					{
+						return diff;
+					}
+				}
+				return b1.length - b2.length;
+			}
+		});
+
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++)
+		{
+			ids.put(new String(data[i], StandardCharsets.UTF_8), i);
+		}
+
+		int[] superOffsets = new int[n + 1];
+		List<Integer> superIds = new ArrayList<Integer>();
+		int[] bucketOffsets = new int[n + 1];
+		List<Integer> bucketIds = new ArrayList<Integer>();
+		byte[] flags = new byte[n];
+		byte[] minLevels = new byte[n];
+		byte[] maxLevels = new byte[n];
+		byte[] resolvedMinLevels = new byte[n];
+		byte[] resolvedMaxLevels = new byte[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			String str = new String(data[i], StandardCharsets.UTF_8);
+
+			superOffsets[i] = superIds.size();
+			Set<String> superClasses = model.class2SuperClasses.get(str);
+			if (null != superClasses)
+			{
+				for (String superCls : superClasses)
+				{
+					superIds.add(ids.get(superCls));
+				}
+			}
+
+			bucketOffsets[i] = bucketIds.size();
+			Set<String> methods = model.compactSig2Methods.get(str);
+			if (null != methods)
+			{
+				for (String method : methods)
+				{
+					bucketIds.add(ids.get(method));
+				}
+			}
+
+			APILife apiLife = model.method2APILifes.get(str);
+			if (null != apiLife)
+			{
+				flags[i] |= FLAG_LIFETIME;
+				minLevels[i] = (byte) apiLife.getMinAPILevel();
+				maxLevels[i] = (byte) apiLife.getMaxAPILevel();
+
+				APILife resolved = model.method2ResolvedAPILifes.get(str);
+				resolvedMinLevels[i] = (byte) resolved.getMinAPILevel();
+				resolvedMaxLevels[i] = (byte) resolved.getMaxAPILevel();
+			}
+			if (model.compactSig2Methods_gt.containsKey(str))
+			{
+				flags[i] |= FLAG_GENERIC;
+			}
+			if (model.compactSig2Methods_varargs.containsKey(str))
+			{
+				flags[i] |= FLAG_VARARGS;
+			}
+		}
+		superOffsets[n] = superIds.size();
+		bucketOffsets[n] = bucketIds.size();
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(n);
+			dos.writeInt(superIds.size());
+			dos.writeInt(bucketIds.size());
+			dos.writeInt(model.getLatestAPILevel());
+			dos.writeInt(model.getRevision());
+
+			int offset = 0;
+			for (int i = 0; i < n; i++)
+			{
+				dos.writeInt(offset);
+				offset += data[i].length;
+			}
+			dos.writeInt(offset);
+
+			for (int superOffset : superOffsets)
+			{
+				dos.writeInt(superOffset);
+			}
+			for (int superId : superIds)
+			{
+				dos.writeInt(superId);
+			}
+			for (int bucketOffset : bucketOffsets)
+			{
+				dos.writeInt(bucketOffset);
+			}
+			for (int bucketId : bucketIds)
+			{
+				dos.writeInt(bucketId);
+			}
+
+			dos.write(flags);
+			dos.write(minLevels);
+			dos.write(maxLevels);
+			dos.write(resolvedMinLevels);
+			dos.write(resolvedMaxLevels);
+
+			for (int i = 0; i < n; i++)
+			{
+				dos.write(data[i]);
+			}
+		}
+		finally
+		{
+			dos.close();
+		}
+	}
+}
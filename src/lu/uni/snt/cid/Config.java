@@ -2,18 +2,38 @@ package lu.uni.snt.cid;
 
 public class Config 
 {
-	public static final int LATEST_API_LEVEL = 25;
+	//The highest API level known, set from the API lifetime model when it is loaded
+	public static int LATEST_API_LEVEL = 25;
 	public static final int DEFAULT_API_LEVEL = 19;
 	
 	public static final String FIELD_VERSION_SDK_INT = "<android.os.Build$VERSION: int SDK_INT>";
 	public static final String FIELD_VERSION_SDK = "<android.os.Build$VERSION: java.lang.String SDK>";
 	
-	public static String apkPath = "";
-	public static String apkName = "";
-	public static String androidJars = "";
+	public static boolean DEBUG = false;
 	
+	//Dump every entry of the APK to <apk>.unzip, instead of only the additional DEX files
+	public static boolean unzipAPK = false;
 	
-	public static boolean DEBUG = false;
-	public static boolean containsSDKVersionChecker = false;
-	//public static ConditionalCG ccg = new ConditionalCG();
+	//Where <apk>.unzip is written (see DexHunter), which must not be shared by processes analyzing apps concurrently
+	public static String workDir = ".";
+	
+	//Load the APK and all its additional DEX files in one Soot Scene, instead of one Scene each
+	public static boolean singleSootRun = false;
+	
+	//Directory of the DexCache shared by all analyses, null to disable it
+	public static String dexCacheDir = null;
+	
+	//Report the callers of the flagged APIs as one caller DAG shared by the whole report, instead of a call stack per caller
+	public static boolean callerDAG = false;
+	public static int callerDAGMaxDepth = 10;
+	public static int callerDAGMaxFanOut = 20;
+	
+	//Do not analyze the classes of the known libraries (see AndroidLibraries): their calls are neither collected nor scanned for SDK checks
+	public static boolean skipLibraries = false;
+	
+	//Threads processing the method bodies of a Scene (see Mining4UTransformer), 1 to process them sequentially
+	public static int minerThreads = 1;
+	
+	//Lifetimes memoized by AndroidAPILifeModel.getLifetime() across the analyses of a process (least recently used first out), 0 to disable
+	public static int lifetimeCacheSize = 16384;
 }
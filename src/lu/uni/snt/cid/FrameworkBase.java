@@ -1,25 +1,136 @@
 package lu.uni.snt.cid;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.input.SAXBuilder;
-
-import lu.uni.snt.cid.utils.CommonUtils;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+/**
+ * The classes (with their super classes and interfaces) and methods of one Android API level,
+ * as listed in an API .txt (current.txt format) or .xml file.
+ */
 public class FrameworkBase 
 {
 	public Map<String, Set<String>> class2SuperClasses = new HashMap<String, Set<String>>();
 	public Map<String, Set<String>> class2Methods = new HashMap<String, Set<String>>();
 	
-	public void load(String androidAPIPath)
+	//Parsing state of the .txt format
+	private String currentPkgName = "";
+	private String currentClsName = "";
+	
+	//The file loaded, and how long it took
+	public String path = null;
+	public long loadTime = 0;
+	
+	/**
+	 * Load the API files in parallel (one task per file) and merge each of them, as soon as it is loaded,
+	 * into the given maps, whose values are concurrent sets.
+	 * 
+	 * @return the loaded files, in the order of apiFiles (only the files that are not .txt or .xml are left out)
+	 * @throws IOException if any of the files cannot be loaded
+	 */
+	public static List<FrameworkBase> loadAll(File[] apiFiles, final ConcurrentMap<String, Set<String>> class2SuperClasses, final ConcurrentMap<String, Set<String>> class2Methods) throws IOException
+	{
+		List<Callable<FrameworkBase>> tasks = new ArrayList<Callable<FrameworkBase>>();
+		for (final File file : apiFiles)
+		{
+			if (! (file.getName().endsWith(".txt") || file.getName().endsWith(".xml")))
+			{
+				continue;
+			}
+			
+			tasks.add(new Callable<FrameworkBase>()
+			{
+				@Override
+				public FrameworkBase call() throws IOException
+				{
+					FrameworkBase fb = new FrameworkBase();
+					fb.load(file.getAbsolutePath());
+					
+					merge(class2SuperClasses, fb.class2SuperClasses);
+					merge(class2Methods, fb.class2Methods);
+					
+					return fb;
+				}
+			});
+		}
+		
+		List<FrameworkBase> frameworkBases = new ArrayList<FrameworkBase>();
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors())));
+		try
+		{
+			for (Future<FrameworkBase> future : pool.invokeAll(tasks))
+			{
+				frameworkBases.add(future.get());
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading the API files");
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof IOException)
+			{
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		
+		return frameworkBases;
+	}
+	
+	private static void merge(ConcurrentMap<String, Set<String>> dest, Map<String, Set<String>> src)
+	{
+		for (Map.Entry<String, Set<String>> entry : src.entrySet())
+		{
+			Set<String> values = dest.get(entry.getKey());
+			if (null == values)
+			{
+				Set<String> newValues = ConcurrentHashMap.newKeySet();
+				values = dest.putIfAbsent(entry.getKey(), newValues);
+				if (null == values)
+				{
+					values = newValues;
+				}
+			}
+			
+			values.addAll(entry.getValue());
+		}
+	}
+	
+	public void load(String androidAPIPath) throws IOException
 	{
+		long start = System.currentTimeMillis();
+		path = androidAPIPath;
+		
 		if (androidAPIPath.endsWith(".txt"))
 		{
 			parseTxtFile(androidAPIPath);
@@ -28,212 +139,229 @@ public class FrameworkBase
 		{
 			parseXmlFile(androidAPIPath);
 		}
+		
+		loadTime = System.currentTimeMillis() - start;
 	}
 	
-	public void parseTxtFile(String txtFilePath)
+	/**
+	 * Streamed line by line.
+	 */
+	public void parseTxtFile(String txtFilePath) throws IOException
 	{
-		List<String> lines = CommonUtils.loadFileToList(txtFilePath);
+		currentPkgName = "";
+		currentClsName = "";
 		
-		String currentPkgName = "";
-		String currentClsName = "";
+		try (BufferedReader br = new BufferedReader(new FileReader(txtFilePath), 64 * 1024))
+		{
+			String line = null;
+			while ((line = br.readLine()) != null)
+			{
+				parseTxtLine(line);
+			}
+		}
+	}
+	
+	private void parseTxtLine(String line)
+	{
+		line = line.trim();
 		
-		for (String line : lines)
+		line = removeGenericType(line);
+		
+		if (line.startsWith("package"))
 		{
-			line = line.trim();
+			currentPkgName = line;
+			currentPkgName = currentPkgName.replace("package", "").replace("{", "").trim();
+		}
+		else if (line.contains(" class "))
+		{
+			line = line.replaceAll(".*class ", "");
+			line = currentPkgName + "." + line;
+			line = line.replace("{", "").trim();
 			
-			line = removeGenericType(line);
+			Set<String> superClses = new HashSet<String>();
 			
-			if (line.startsWith("package"))
-			{
-				currentPkgName = line;
-				currentPkgName = currentPkgName.replace("package", "").replace("{", "").trim();
-			}
-			else if (line.contains(" class "))
+			if (line.contains("implements"))
 			{
-				line = line.replaceAll(".*class ", "");
-				line = currentPkgName + "." + line;
-				line = line.replace("{", "").trim();
-				
-				Set<String> superClses = new HashSet<String>();
+				String[] strs = line.split("implements");
+				line = strs[0].trim();
 				
-				if (line.contains("implements"))
+				String[] interfaces = strs[1].trim().split(" ");
+				for (String interf : interfaces)
 				{
-					String[] strs = line.split("implements");
-					line = strs[0].trim();
-					
-					String[] interfaces = strs[1].trim().split(" ");
-					for (String interf : interfaces)
-					{
-						superClses.add(interf);
-					}
-				}
-				
-				if (line.contains("extends"))
-				{
-					String[] strs = line.split("extends");
-					line = strs[0].trim();
-					
-					superClses.add(strs[1].trim());
+					superClses.add(interf);
 				}
-				
-				currentClsName = line;
-				
-				class2SuperClasses.put(currentClsName, superClses);
 			}
-			else if (line.contains(" interface "))
+			
+			if (line.contains("extends"))
 			{
-				line = line.replaceAll(".*interface ", "");
-				line = currentPkgName + "." + line;
-				line = line.replace("{", "").trim();
+				String[] strs = line.split("extends");
+				line = strs[0].trim();
 				
-				Set<String> superClses = new HashSet<String>();
+				superClses.add(strs[1].trim());
+			}
+			
+			currentClsName = line;
+			
+			class2SuperClasses.put(currentClsName, superClses);
+		}
+		else if (line.contains(" interface "))
+		{
+			line = line.replaceAll(".*interface ", "");
+			line = currentPkgName + "." + line;
+			line = line.replace("{", "").trim();
+			
+			Set<String> superClses = new HashSet<String>();
+			
+			if (line.contains("implements"))
+			{
+				String[] strs = line.split("implements");
+				line = strs[0].trim();
 				
-				if (line.contains("implements"))
+				String[] interfaces = strs[1].trim().split(" ");
+				for (String interf : interfaces)
 				{
-					String[] strs = line.split("implements");
-					line = strs[0].trim();
-					
-					String[] interfaces = strs[1].trim().split(" ");
-					for (String interf : interfaces)
-					{
-						superClses.add(interf);
-					}
+					superClses.add(interf);
 				}
+			}
+			
+			currentClsName = line;
+			
+			class2SuperClasses.put(currentClsName, superClses);
+		}
+		else if (line.startsWith("ctor") || line.startsWith("method"))
+		{
+			StringBuilder sb = new StringBuilder();
+			
+			if (line.startsWith("ctor"))
+			{
+				sb.append("<" + currentClsName + ": void <init>");
 				
-				currentClsName = line;
+				String params = line.substring(line.lastIndexOf('('), line.lastIndexOf(')')+1).replace(" ", "");
 				
-				class2SuperClasses.put(currentClsName, superClses);
+				sb.append(params + ">");
 			}
-			else if (line.startsWith("ctor") || line.startsWith("method"))
+			else if (line.startsWith("method"))
 			{
-				StringBuilder sb = new StringBuilder();
+				sb.append("<" + currentClsName + ": ");
 				
-				if (line.startsWith("ctor"))
-				{
-					sb.append("<" + currentClsName + ": void <init>");
-					
-					String params = line.substring(line.lastIndexOf('('), line.lastIndexOf(')')+1).replace(" ", "");
-					
-					sb.append(params + ">");
-				}
-				else if (line.startsWith("method"))
-				{
-					sb.append("<" + currentClsName + ": ");
-					
-					String params = line.substring(line.lastIndexOf('('), line.lastIndexOf(')')+1).replace(" ", "");
-					
-					line = line.substring(0, line.lastIndexOf('('));
-					String[] strs = line.split(" ");
-					
-					sb.append(strs[strs.length-2] + " " + strs[strs.length-1]);
-					sb.append(params + ">");
-				}
-			
-				put(class2Methods, currentClsName, sb.toString());
+				String params = line.substring(line.lastIndexOf('('), line.lastIndexOf(')')+1).replace(" ", "");
+				
+				line = line.substring(0, line.lastIndexOf('('));
+				String[] strs = line.split(" ");
+				
+				sb.append(strs[strs.length-2] + " " + strs[strs.length-1]);
+				sb.append(params + ">");
 			}
+		
+			put(class2Methods, currentClsName, sb.toString());
 		}
 	}
 	
-	public void parseXmlFile(String xmlFilePath)
+	public void parseXmlFile(String xmlFilePath) throws IOException
 	{
-		SAXBuilder builder = new SAXBuilder();
+		String packageName = null;
+		String className = null;
+		StringBuilder sb = null;
+		boolean first = true;
 		
-		try
+		int depth = 0;
+		
+		try (InputStream is = new FileInputStream(xmlFilePath))
 		{
-			Document doc = (Document) builder.build(xmlFilePath);
-			Element api = doc.getRootElement();
-
-			List<Element> packageEles = api.getChildren("package");
-			for (Element packageEle : packageEles)
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			
+			while (reader.hasNext())
 			{
-				String packageName = packageEle.getAttributeValue("name");
-				
-				List<Element> classEles = packageEle.getChildren("class");
-				List<Element> interfaceEles = packageEle.getChildren("interface");
+				int event = reader.next();
 				
-				List<Element> workList = new ArrayList<Element>();
-				if (classEles != null)
-				{
-					workList.addAll(classEles);
-				}
-				if (interfaceEles != null)
+				if (XMLStreamConstants.START_ELEMENT == event)
 				{
-					workList.addAll(interfaceEles);
-				}
-				
-				for (Element classEle : workList)
-				{
-					String className = packageName + "." + classEle.getAttributeValue("name");
-
-					String extendedClass = classEle.getAttributeValue("extends");
-					if (! "java.lang.Object".equals(extendedClass))
-					{
-						put(class2SuperClasses, className, classEle.getAttributeValue("extends"));
-					}
-
-					for (Element implementsEle : classEle.getChildren("implements"))
+					depth++;
+					String name = reader.getLocalName();
+					
+					//<api><package><class|interface><implements|constructor|method><parameter>
+					if (2 == depth && "package".equals(name))
 					{
-						put(class2SuperClasses, className, implementsEle.getAttributeValue("name"));
+						packageName = reader.getAttributeValue(null, "name");
 					}
-					
-					for (Element constructorEle : classEle.getChildren("constructor"))
+					else if (3 == depth && null != packageName && ("class".equals(name) || "interface".equals(name)))
 					{
-						StringBuilder sb = new StringBuilder();
-						sb.append("<" + className + ": void <init>(");
+						className = packageName + "." + reader.getAttributeValue(null, "name");
 						
-						boolean first = true;
-						
-						for (Element parameterEle : constructorEle.getChildren("parameter"))
+						String extendedClass = reader.getAttributeValue(null, "extends");
+						if (null == extendedClass)
 						{
-							if (first)
-							{
-								sb.append(removeGenericType(parameterEle.getAttributeValue("type")));
-								first = false;
-							}
-							else
+							if (! class2SuperClasses.containsKey(className))
 							{
-								sb.append("," + removeGenericType(parameterEle.getAttributeValue("type")));
+								class2SuperClasses.put(className, new HashSet<String>());
 							}
 						}
-						
-						sb.append(")>");
-						
-						put(class2Methods, className, sb.toString());
+						else if (! "java.lang.Object".equals(extendedClass))
+						{
+							put(class2SuperClasses, className, extendedClass);
+						}
 					}
-					
-					for (Element methodEle : classEle.getChildren("method"))
+					else if (4 == depth && null != className)
 					{
-						StringBuilder sb = new StringBuilder();
-						sb.append("<" + className + ": ");
-						sb.append(removeGenericType(methodEle.getAttributeValue("return")));
-						sb.append(" " + methodEle.getAttributeValue("name"));
-						sb.append("(");
-						
-						boolean first = true;
-						
-						for (Element parameterEle : methodEle.getChildren("parameter"))
+						if ("implements".equals(name))
 						{
-							if (first)
-							{
-								sb.append(removeGenericType(parameterEle.getAttributeValue("type")));
-								first = false;
-							}
-							else
-							{
-								sb.append("," + removeGenericType(parameterEle.getAttributeValue("type")));
-							}
+							put(class2SuperClasses, className, reader.getAttributeValue(null, "name"));
 						}
-						
+						else if ("constructor".equals(name))
+						{
+							sb = new StringBuilder();
+							sb.append("<" + className + ": void <init>(");
+							first = true;
+						}
+						else if ("method".equals(name))
+						{
+							sb = new StringBuilder();
+							sb.append("<" + className + ": ");
+							sb.append(removeGenericType(reader.getAttributeValue(null, "return")));
+							sb.append(" " + reader.getAttributeValue(null, "name"));
+							sb.append("(");
+							first = true;
+						}
+					}
+					else if (5 == depth && null != sb && "parameter".equals(name))
+					{
+						if (first)
+						{
+							sb.append(removeGenericType(reader.getAttributeValue(null, "type")));
+							first = false;
+						}
+						else
+						{
+							sb.append("," + removeGenericType(reader.getAttributeValue(null, "type")));
+						}
+					}
+				}
+				else if (XMLStreamConstants.END_ELEMENT == event)
+				{
+					if (4 == depth && null != sb)
+					{
 						sb.append(")>");
-						
 						put(class2Methods, className, sb.toString());
+						sb = null;
+					}
+					else if (3 == depth)
+					{
+						className = null;
 					}
+					else if (2 == depth)
+					{
+						packageName = null;
+					}
+					
+					depth--;
 				}
 			}
+			
+			reader.close();
 		}
-		catch (Exception ex)
+		catch (XMLStreamException ex)
 		{
-			ex.printStackTrace();
+			throw new IOException("Cannot parse " + xmlFilePath, ex);
 		}
 	}
 	
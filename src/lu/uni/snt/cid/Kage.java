@@ -2,6 +2,8 @@ package lu.uni.snt.cid;
 
 import lu.uni.snt.cid.api.APIExtractor;
 import lu.uni.snt.cid.api.APILife;
+import lu.uni.snt.cid.ccg.APILevels;
+import lu.uni.snt.cid.ccg.CallerDAG;
 import lu.uni.snt.cid.ccg.ConditionalCallGraph;
 import lu.uni.snt.cid.dcl.DexHunter;
 import lu.uni.snt.cid.utils.MethodSignature;
@@ -14,37 +16,56 @@ import java.util.Set;
 
 public class Kage {
 	public static void main(String[] args) {
-		Config.apkPath = args[0];
-		Config.androidJars = args[1];
-		String apkName = Config.apkPath;
-		if (apkName.contains("/")) {
-			Config.apkName = apkName.substring(apkName.lastIndexOf('/') + 1);
-		}
+		AnalysisContext context = new AnalysisContext(args[0], args[1]);
 
 		try {
-			mine(Config.apkPath, Config.androidJars);
+			mine(context);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		} finally {
-			clean(Config.apkName);
+			clean(context.apkName);
 		}
 	}
 
 	public static void mine(String apkPath, String androidJars) {
+		mine(new AnalysisContext(apkPath, androidJars));
+	}
+
+	public static void mine(AnalysisContext context) {
+		String apkPath = context.apkPath;
+		String androidJars = context.androidJars;
+		ConditionalCallGraph ccg = context.ccg;
+
+		//Signatures are interned per analysis
+		MethodSignature.clearInterned();
+		AndroidAPILifeModel.getInstance().getFilter().reset();
+
 		//(1) Unzip Android APK and extract all additionally accessed DEXes
-		Set<String> additionalDexes = new DexHunter(apkPath).hunt();
+		DexHunter dexHunter = new DexHunter(apkPath);
+		Set<String> additionalDexes = Config.unzipAPK ? dexHunter.hunt() : dexHunter.huntDexesOnly();
+		System.out.println("DexHunter wrote " + dexHunter.bytesWritten + " bytes (" + dexHunter.entriesExtracted + " DEX entries) and skipped " + dexHunter.entriesSkipped + " entries");
 
 		//(2) Extracting the targeted Sdk version
-		AndroidManifest manifest = new AndroidManifest(Config.apkName);
+		AndroidManifest manifest = new AndroidManifest(new File(apkPath));
 		int apiLevel = inferAPILevel(manifest);
 
 		//(3) Extracting the leveraged Android APIs (primary and all)
-		APIExtractor extractor = new APIExtractor();
-		extractor.transform(apkPath, androidJars, apiLevel);
-		System.out.println("Found " + additionalDexes.size() + " additional DEX files. Now visiting them one by one.");
-		for (String dex : additionalDexes) {
-			extractor.transform(dex, androidJars, apiLevel);
+		APIExtractor extractor = context.extractor;
+		if (Config.singleSootRun) {
+			System.out.println("Found " + additionalDexes.size() + " additional DEX files. Now visiting them together with the APK.");
+			extractor.transformAll(apkPath, additionalDexes, androidJars, apiLevel);
+		} else {
+			extractor.transform(apkPath, androidJars, apiLevel);
+			System.out.println("Found " + additionalDexes.size() + " additional DEX files. Now visiting them one by one.");
+			for (String dex : additionalDexes) {
+				extractor.transform(dex, androidJars, apiLevel);
+			}
+		}
+		if (null != Config.dexCacheDir) {
+			System.out.println("DexCache: " + context.dexCacheHits + " hits, " + context.dexCacheMisses + " misses");
 		}
+		System.out.println("Inherited API resolution: " + context.inheritedAPIHits + " hits, " + context.inheritedAPIMisses + " misses");
+		System.out.println("Android API pre-check: " + AndroidAPILifeModel.getInstance().getFilter());
 
 		int minAPILevel = manifest.getMinSdkVersion();
 		int maxAPILevel = manifest.getMaxSdkVersion();
@@ -53,7 +74,11 @@ public class Kage {
 		}
 
 		//(4) SDK check study (expand constructors)
-		ConditionalCallGraph.expandConstructors();
+		ccg.expandConstructors();
+		System.out.println("Conditional call graph: " + ccg.methods.size() + " methods, " + ccg.getEdgeCount() + " edges (" + ccg.syntheticEdges + " from constructor expansion), " + ccg.conditions.size() + " distinct conditions, ~" + ccg.estimateHeapSize() / 1024 + " KB");
+		if (Config.DEBUG) {
+			System.out.println("[DEBUG] Condition summaries checked against the traversal: " + ccg.verifySummaries() + " mismatches");
+		}
 
 		System.out.println("--------------------------------------------------------------------------------------------------------");
 
@@ -68,6 +93,9 @@ public class Kage {
 		Set<APILife> protectedAPIs_forward = new HashSet<>();
 		Set<APILife> problematicAPIs_backward = new HashSet<>();
 		Set<APILife> protectedAPIs_backward = new HashSet<>();
+		//Guarded by SDK checks, which however do not exclude all the levels the API is missing on
+		Set<APILife> misprotectedAPIs_forward = new HashSet<>();
+		Set<APILife> misprotectedAPIs_backward = new HashSet<>();
 
 		for (String method : extractor.usedAndroidAPIs) {
 			APILife lifetime = AndroidAPILifeModel.getInstance().getLifetime(method);
@@ -80,61 +108,95 @@ public class Kage {
 				continue;
 			}
 
-			if (lifetime.getMaxAPILevel() < maxAPILevel) {
-				if (ConditionalCallGraph.obtainConditions(method).isEmpty()) {
+			boolean guarded = ! ccg.obtainConditions(method).isEmpty();
+			long levels = ccg.obtainReachableLevels(method);
 
+			if (lifetime.getMaxAPILevel() < maxAPILevel) {
+				if (! guarded) {
 					problematicAPIs_forward.add(lifetime);
+				} else if (APILevels.intersects(levels, lifetime.getMaxAPILevel() + 1, maxAPILevel)) {
+					misprotectedAPIs_forward.add(lifetime);
 				} else {
 					protectedAPIs_forward.add(lifetime);
 				}
 			}
 
 			if (lifetime.getMinAPILevel() > minAPILevel && lifetime.getMinAPILevel() > 1) {
-				if (ConditionalCallGraph.obtainConditions(method).isEmpty()) {
+				if (! guarded) {
 					problematicAPIs_backward.add(lifetime);
+				} else if (APILevels.intersects(levels, minAPILevel, lifetime.getMinAPILevel() - 1)) {
+					misprotectedAPIs_backward.add(lifetime);
 				} else {
 					protectedAPIs_backward.add(lifetime);
 				}
 			}
 		}
 
-		System.out.println("SDK Check:" + Config.containsSDKVersionChecker);
+		System.out.println("SDK Check:" + context.containsSDKVersionChecker);
 		System.out.println("Found " + protectedAPIs_forward.size() + " Android APIs (for forward compatibility) that are accessed with protection (SDK Check)");
 		System.out.println("Found " + problematicAPIs_forward.size() + " Android APIs (for forward compatibility) that are accessed problematically ");
+		System.out.println("Found " + misprotectedAPIs_forward.size() + " Android APIs (for forward compatibility) that are accessed with a protection (SDK Check) not covering their lifetime");
 		System.out.println("Found " + protectedAPIs_backward.size() + " Android APIs (for backward compatibility) that are accessed with protection (SDK Check)");
 		System.out.println("Found " + problematicAPIs_backward.size() + " Android APIs (for backward compatibility) that are accessed problematically ");
+		System.out.println("Found " + misprotectedAPIs_backward.size() + " Android APIs (for backward compatibility) that are accessed with a protection (SDK Check) not covering their lifetime");
+
+		CallerDAG dag = Config.callerDAG ? new CallerDAG(Config.callerDAGMaxDepth, Config.callerDAGMaxFanOut) : null;
 
 		for (APILife lifetime : protectedAPIs_forward) {
 			System.out.println("\n==>Protected_Forward" + lifetime);
-			printMethod(extractor, lifetime);
+			printMethod(context, dag, lifetime);
 		}
 
 		for (APILife lifetime : problematicAPIs_forward) {
 			System.out.println("\n==>Problematic_Forward" + lifetime);
-			printMethod(extractor, lifetime);
+			printMethod(context, dag, lifetime);
+		}
+
+		for (APILife lifetime : misprotectedAPIs_forward) {
+			System.out.println("\n==>Misprotected_Forward" + lifetime + APILevels.toString(ccg.obtainReachableLevels(lifetime.getSignature())));
+			printMethod(context, dag, lifetime);
 		}
 
 
 		for (APILife lifetime : protectedAPIs_backward) {
 			System.out.println("\n==>Protected_Backward" + lifetime);
-			printMethod(extractor, lifetime);
+			printMethod(context, dag, lifetime);
 		}
 
 		for (APILife lifetime : problematicAPIs_backward) {
 			System.out.println("\n==>Problematic_Backward" + lifetime);
-			printMethod(extractor, lifetime);
+			printMethod(context, dag, lifetime);
+		}
+
+		for (APILife lifetime : misprotectedAPIs_backward) {
+			System.out.println("\n==>Misprotected_Backward" + lifetime + APILevels.toString(ccg.obtainReachableLevels(lifetime.getSignature())));
+			printMethod(context, dag, lifetime);
+		}
+
+		if (null != dag) {
+			System.out.println("\nCaller DAG: " + dag.nodes + " nodes, " + dag.edges + " edges");
 		}
 	}
 
-	private static void printMethod(APIExtractor extractor, APILife lifetime) {
+	/**
+	 * @param dag the caller DAG of the report if the callers are reported as a DAG, null otherwise
+	 */
+	private static void printMethod(AnalysisContext context, CallerDAG dag, APILife lifetime) {
+		APIExtractor extractor = context.extractor;
 		System.out.println(extractor.api2callers.get(lifetime.getSignature()));
 		for (String methodSig : extractor.api2callers.get(lifetime.getSignature())) {
-			boolean isLibraryMethod = AndroidLibraries.isAndroidLibrary(new MethodSignature(methodSig).getCls());
+			boolean isLibraryMethod = AndroidLibraries.isAndroidLibrary(MethodSignature.of(methodSig).getCls());
 			if (isLibraryMethod) {
 				System.out.println("--Library:True-->" + lifetime + "-->" + methodSig);
 			} else {
 				System.out.println("--Library:False-->" + lifetime + "-->" + methodSig);
-				System.out.println(ConditionalCallGraph.obtainCallStack(methodSig));
+				if (null != dag) {
+					for (String line : context.ccg.obtainCallerDAG(methodSig, dag)) {
+						System.out.print(line);
+					}
+				} else {
+					System.out.println(context.ccg.obtainCallStack(methodSig));
+				}
 			}
 		}
 	}
@@ -154,7 +216,7 @@ public class Kage {
 
 	public static void clean(String apkName) {
 		try {
-			FileUtils.deleteDirectory(new File(apkName + ".unzip"));
+			FileUtils.deleteDirectory(new File(Config.workDir, apkName + ".unzip"));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,451 @@
+package lu.uni.snt.cid;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import lu.uni.snt.cid.api.LifetimeCache;
+import lu.uni.snt.cid.utils.CommonUtils;
+
+/**
+ * Analyzes a corpus of APKs in one warm JVM, so that the lifetime model and the
+ * Android class/library tables are only loaded once.
+ *
+ * Usage: KageBatch [-workers N] [-worker-xmx SIZE] [-timeout SECONDS] [-warm-up-timeout SECONDS] [-work-dir DIR] [-threads N] [-lifetime-cache N] [-skip-libraries] [-unzip] [-single-run] [-cache DIR] [-dag] <apk directory | file listing apk paths | - (stdin)> <android jars> [output directory]
+ *
+ * The full report of every app is written to <output directory>/<apk name>-<hash of its path>.txt (see getReportName()),
+ * and one record per app (apk, status, latency in ms, DexCache hits and misses) is appended to <output directory>/results.tsv.
+ * With -workers N, the apps are dispatched to N forked worker JVMs (see KageWorker) which run in parallel.
+ * Each of them gets -worker-xmx SIZE of heap (as given to -Xmx, e.g., 4g), by default the heap of this JVM divided by N,
+ * and is restarted if it spends more than -timeout SECONDS on an app, which is then recorded as FAILED.
+ * Warming a worker up may take up to -warm-up-timeout SECONDS (no limit by default): the batch is aborted
+ * if no worker can be warmed up.
+ * The APK entries are written under -work-dir DIR (the current directory by default), each worker having its own directory in there.
+ * With -threads N, the method bodies of every app are processed by N threads.
+ * With -lifetime-cache N, up to N API lifetimes are memoized across the apps analyzed by a JVM (see LifetimeCache).
+ * With -skip-libraries, the classes of the known libraries (see AndroidLibraries) are not analyzed.
+ */
+public class KageBatch
+{
+	public static final String RESULTS_FILE = "results.tsv";
+
+	private BufferedReader apkReader;
+	private PrintWriter results;
+
+	private List<Long> latencies = new ArrayList<Long>();
+	private int failures = 0;
+	private int dexCacheHits = 0;
+	private int dexCacheMisses = 0;
+
+	//See KageWorker
+	public String workerHeap = null;
+	public long workerTimeout = 0;
+	public long workerWarmUpTimeout = 0;
+
+	//Set once a worker cannot be warmed up: no more apps are dispatched
+	private volatile boolean aborted = false;
+
+	public static void main(String[] args)
+	{
+		int workers = 1;
+		boolean worker = false;
+		KageBatch batch = new KageBatch();
+
+		List<String> params = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if ("-workers".equals(args[i]))
+			{
+				workers = Integer.parseInt(args[++i]);
+			}
+			else if ("-worker-xmx".equals(args[i]))
+			{
+				batch.workerHeap = args[++i];
+			}
+			else if ("-timeout".equals(args[i]))
+			{
+				batch.workerTimeout = Long.parseLong(args[++i]) * 1000;
+			}
+			else if ("-warm-up-timeout".equals(args[i]))
+			{
+				batch.workerWarmUpTimeout = Long.parseLong(args[++i]) * 1000;
+			}
+			else if ("-threads".equals(args[i]))
+			{
+				Config.minerThreads = Integer.parseInt(args[++i]);
+			}
+			else if ("-lifetime-cache".equals(args[i]))
+			{
+				Config.lifetimeCacheSize = Integer.parseInt(args[++i]);
+			}
+			else if ("-skip-libraries".equals(args[i]))
+			{
+				Config.skipLibraries = true;
+			}
+			else if ("-worker".equals(args[i]))
+			{
+				worker = true;
+			}
+			else if ("-unzip".equals(args[i]))
+			{
+				Config.unzipAPK = true;
+			}
+			else if ("-single-run".equals(args[i]))
+			{
+				Config.singleSootRun = true;
+			}
+			else if ("-cache".equals(args[i]))
+			{
+				Config.dexCacheDir = args[++i];
+			}
+			else if ("-work-dir".equals(args[i]))
+			{
+				Config.workDir = args[++i];
+			}
+			else if ("-dag".equals(args[i]))
+			{
+				Config.callerDAG = true;
+			}
+			else
+			{
+				params.add(args[i]);
+			}
+		}
+
+		String input = params.get(0);
+		String androidJars = params.get(1);
+		String outputDir = params.size() > 2 ? params.get(2) : "kage-results";
+
+		new File(outputDir).mkdirs();
+		new File(Config.workDir).mkdirs();
+
+		try
+		{
+			if (worker)
+			{
+				runWorker(input, androidJars, outputDir);
+			}
+			else
+			{
+				batch.run(input, androidJars, outputDir, workers);
+			}
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	public void run(String input, String androidJars, String outputDir, int workers) throws IOException, InterruptedException
+	{
+		apkReader = openAPKList(input);
+		results = new PrintWriter(new FileWriter(outputDir + File.separator + RESULTS_FILE, true));
+
+		long batchStart = System.currentTimeMillis();
+
+		if (workers <= 1)
+		{
+			warmUp();
+
+			String apkPath = null;
+			while ((apkPath = nextAPK()) != null)
+			{
+				record(analyze(apkPath, androidJars, outputDir));
+			}
+		}
+		else
+		{
+			final String heap = null != workerHeap ? workerHeap : Runtime.getRuntime().maxMemory() / workers / (1024 * 1024) + "m";
+
+			ExecutorService pool = Executors.newFixedThreadPool(workers);
+			for (int i = 0; i < workers; i++)
+			{
+				pool.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						KageWorker worker = new KageWorker(androidJars, outputDir, heap, workerTimeout, workerWarmUpTimeout);
+						try
+						{
+							String apkPath = null;
+							while ((apkPath = nextAPK()) != null)
+							{
+								record(worker.analyze(apkPath));
+							}
+						}
+						catch (IOException ex)
+						{
+							//Every other worker would most likely fail the same way
+							aborted = true;
+							ex.printStackTrace();
+						}
+						finally
+						{
+							worker.stop();
+						}
+					}
+				});
+			}
+
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		results.close();
+		apkReader.close();
+
+		printSummary(System.currentTimeMillis() - batchStart, workers);
+
+		if (aborted)
+		{
+			throw new IOException("Batch aborted, as the workers could not be warmed up: the remaining apps have not been analyzed");
+		}
+	}
+
+	/**
+	 * The loop of a forked worker: analyze every APK path received on the input,
+	 * and answer with its result record on stdout.
+	 */
+	public static void runWorker(String input, String androidJars, String outputDir) throws IOException
+	{
+		warmUp();
+
+		System.out.println(KageWorker.READY);
+		System.out.flush();
+
+		BufferedReader reader = openAPKList(input);
+
+		String apkPath = null;
+		while ((apkPath = reader.readLine()) != null)
+		{
+			apkPath = apkPath.trim();
+			if (apkPath.isEmpty())
+			{
+				continue;
+			}
+
+			System.out.println(analyze(apkPath, androidJars, outputDir));
+			System.out.flush();
+		}
+
+		reader.close();
+	}
+
+	private synchronized String nextAPK() throws IOException
+	{
+		if (aborted)
+		{
+			return null;
+		}
+
+		String apkPath = null;
+		while ((apkPath = apkReader.readLine()) != null)
+		{
+			apkPath = apkPath.trim();
+			if (! apkPath.isEmpty())
+			{
+				return apkPath;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param record apk path, status, latency (ms), DexCache hits and misses, separated by tabs
+	 */
+	private synchronized void record(String record)
+	{
+		String[] fields = record.split("\t");
+
+		if (! "OK".equals(fields[1]))
+		{
+			failures++;
+		}
+		latencies.add(Long.parseLong(fields[2]));
+		if (fields.length > 4)
+		{
+			dexCacheHits += Integer.parseInt(fields[3]);
+			dexCacheMisses += Integer.parseInt(fields[4]);
+		}
+
+		results.println(record);
+		results.flush();
+		System.out.println(record);
+	}
+
+	/**
+	 * Load everything that is shared by all the apps before the first one is analyzed.
+	 */
+	public static void warmUp()
+	{
+		long start = System.currentTimeMillis();
+
+		AndroidAPILifeModel.getInstance();
+		AndroidLibraries.load();
+		AndroidClasses.load();
+
+		System.out.println("Loaded the Android API lifetime model in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Run Kage on a single app, redirecting its report to <outputDir>/<getReportName(apkPath)>
+	 *
+	 * @return the result record of the app
+	 */
+	public static String analyze(String apkPath, String androidJars, String outputDir)
+	{
+		String apkName = CommonUtils.getFileName(apkPath);
+		AnalysisContext context = new AnalysisContext(apkPath, androidJars);
+
+		boolean success = true;
+		long start = System.currentTimeMillis();
+		PrintStream stdout = System.out;
+		PrintStream report = null;
+
+		try
+		{
+			report = new PrintStream(new FileOutputStream(outputDir + File.separator + getReportName(apkPath)));
+			System.setOut(report);
+
+			Kage.mine(context);
+		}
+		catch (Throwable t)
+		{
+			success = false;
+			t.printStackTrace(null == report ? System.err : report);
+		}
+		finally
+		{
+			Kage.clean(apkName);
+
+			System.setOut(stdout);
+			if (null != report)
+			{
+				report.close();
+			}
+		}
+
+		return apkPath + "\t" + (success ? "OK" : "FAILED") + "\t" + (System.currentTimeMillis() - start)
+				+ "\t" + context.dexCacheHits + "\t" + context.dexCacheMisses;
+	}
+
+	/**
+	 * @return <apk name>-<hash of the absolute APK path>.txt, as apps from different directories may have the same name (e.g., base.apk)
+	 */
+	public static String getReportName(String apkPath)
+	{
+		MessageDigest digest = null;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest(new File(apkPath).getAbsolutePath().getBytes(StandardCharsets.UTF_8)))
+		{
+			sb.append(String.format("%02x", b));
+		}
+
+		return CommonUtils.getFileName(apkPath) + "-" + sb.substring(0, 12) + ".txt";
+	}
+
+	/**
+	 * @param input a directory containing APKs, a file listing one APK path per line, or "-" to read the list from stdin
+	 */
+	public static BufferedReader openAPKList(String input) throws IOException
+	{
+		if ("-".equals(input))
+		{
+			return new BufferedReader(new InputStreamReader(System.in));
+		}
+
+		File file = new File(input);
+		if (file.isDirectory())
+		{
+			StringBuilder sb = new StringBuilder();
+
+			File[] apks = file.listFiles();
+			if (null != apks)
+			{
+				for (File apk : apks)
+				{
+					if (apk.isFile() && apk.getName().endsWith(".apk"))
+					{
+						sb.append(apk.getPath() + "\n");
+					}
+				}
+			}
+
+			return new BufferedReader(new StringReader(sb.toString()));
+		}
+
+		return new BufferedReader(new FileReader(file));
+	}
+
+	public void printSummary(long wallTime, int workers)
+	{
+		List<Long> sorted = new ArrayList<Long>(latencies);
+		Collections.sort(sorted);
+
+		double minutes = wallTime / 60000.0;
+		double throughput = minutes > 0 ? sorted.size() / minutes : 0;
+
+		System.out.println("--------------------------------------------------------------------------------------------------------");
+		System.out.println("Analyzed " + sorted.size() + " APKs (" + failures + " failed) in " + wallTime + " ms");
+		System.out.println(String.format("Throughput: %.2f APKs/min", throughput));
+		System.out.println("Per-APK latency: p50=" + percentile(sorted, 50) + " ms, p95=" + percentile(sorted, 95) + " ms");
+
+		int lookups = dexCacheHits + dexCacheMisses;
+		if (lookups > 0)
+		{
+			System.out.println(String.format("DexCache: %d hits / %d lookups (%.1f%%)", dexCacheHits, lookups, 100.0 * dexCacheHits / lookups));
+		}
+		
+		//Only known for the apps analyzed in this JVM: with -workers, the model is not even loaded in here
+		if (workers <= 1)
+		{
+			LifetimeCache lifetimeCache = AndroidAPILifeModel.getInstance().getLifetimeCache();
+			if (lifetimeCache.hits + lifetimeCache.misses > 0)
+			{
+				System.out.println("Lifetime memo: " + lifetimeCache);
+			}
+		}
+	}
+
+	/**
+	 * Nearest-rank percentile of an already sorted list.
+	 */
+	public static long percentile(List<Long> sorted, int p)
+	{
+		if (sorted.isEmpty())
+		{
+			return 0;
+		}
+
+		int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+
+		return sorted.get(Math.max(rank, 1) - 1);
+	}
+}
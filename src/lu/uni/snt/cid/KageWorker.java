@@ -0,0 +1,311 @@
+package lu.uni.snt.cid;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A forked JVM running "KageBatch -worker", fed with one APK path at a time over its stdin.
+ *
+ * Soot keeps its whole state in the G singleton, so two apps can only be analyzed
+ * concurrently if they live in different processes. Each worker stays warm across apps,
+ * and is transparently restarted if it dies (e.g., OutOfMemoryError) in the middle of an app,
+ * or if it takes longer than the timeout on an app (which is then recorded as FAILED).
+ * Warming a worker up (loading, or even building, the lifetime model) has its own timeout.
+ */
+public class KageWorker
+{
+	//How long a worker is given to exit once its input is closed
+	public static final long STOP_TIMEOUT = 30000;
+
+	//Printed by a worker once it is warmed up (see KageBatch.runWorker())
+	public static final String READY = "KageWorker ready";
+
+	//A worker that dies or times out while warming up is started again, up to this many times in a row
+	public static final int WARM_UP_ATTEMPTS = 2;
+
+	//Ends the lines read from a worker
+	private static final String EOF = new String("EOF");
+
+	private String androidJars;
+	private String outputDir;
+
+	private String heap;
+	private long timeout;
+	private long warmUpTimeout;
+
+	//The work directory of the current worker JVM (see Config.workDir)
+	private File workDir;
+
+	private Process process;
+	private PrintWriter toWorker;
+	private BlockingQueue<String> fromWorker;
+
+	/**
+	 * @param heap the maximum heap of the worker JVM, as given to -Xmx (e.g., 4g)
+	 * @param timeout in ms, how long the worker may take on one app (0 for no limit)
+	 * @param warmUpTimeout in ms, how long the worker may take to warm up (0 for no limit)
+	 */
+	public KageWorker(String androidJars, String outputDir, String heap, long timeout, long warmUpTimeout)
+	{
+		this.androidJars = androidJars;
+		this.outputDir = outputDir;
+		this.heap = heap;
+		this.timeout = timeout;
+		this.warmUpTimeout = warmUpTimeout;
+	}
+
+	public void start() throws IOException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+		{
+			//The heap of the parent JVM is meant for all the workers together
+			if (! (arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-XX:MaxHeapSize=") || arg.startsWith("-XX:InitialHeapSize=")))
+			{
+				command.add(arg);
+			}
+		}
+		command.add("-Xmx" + heap);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(KageBatch.class.getName());
+		command.add("-worker");
+		if (Config.unzipAPK)
+		{
+			command.add("-unzip");
+		}
+		if (Config.singleSootRun)
+		{
+			command.add("-single-run");
+		}
+		if (null != Config.dexCacheDir)
+		{
+			command.add("-cache");
+			command.add(Config.dexCacheDir);
+		}
+		if (Config.callerDAG)
+		{
+			command.add("-dag");
+		}
+		if (Config.skipLibraries)
+		{
+			command.add("-skip-libraries");
+		}
+		if (Config.minerThreads > 1)
+		{
+			command.add("-threads");
+			command.add(String.valueOf(Config.minerThreads));
+		}
+		//Two apps with the same name (e.g., base.apk) may be analyzed by two workers at the same time
+		workDir = Files.createTempDirectory(Paths.get(Config.workDir), "kage-worker-").toFile();
+		command.add("-work-dir");
+		command.add(workDir.getPath());
+		command.add("-lifetime-cache");
+		command.add(String.valueOf(Config.lifetimeCacheSize));
+		command.add("-");
+		command.add(androidJars);
+		command.add(outputDir);
+
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		process = pb.start();
+
+		toWorker = new PrintWriter(new OutputStreamWriter(process.getOutputStream()));
+		fromWorker = readLines(new BufferedReader(new InputStreamReader(process.getInputStream())));
+	}
+
+	/**
+	 * Read the output of the worker in the background, so that waiting for it can time out.
+	 *
+	 * @return the lines read, EOF being added once the output is closed
+	 */
+	private static BlockingQueue<String> readLines(final BufferedReader reader)
+	{
+		final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					String line = null;
+					while ((line = reader.readLine()) != null)
+					{
+						lines.add(line);
+					}
+				}
+				catch (IOException ex)
+				{
+					//Closed by a killed worker
+				}
+				finally
+				{
+					lines.add(EOF);
+				}
+			}
+		}, "KageWorker output");
+		thread.setDaemon(true);
+		thread.start();
+
+		return lines;
+	}
+
+	/**
+	 * @return the result record of the app, as printed by the worker
+	 * @throws IOException if no worker can be warmed up, in which case the app is not analyzed
+	 */
+	public String analyze(String apkPath) throws IOException
+	{
+		long start = System.currentTimeMillis();
+
+		if (null == process || ! process.isAlive())
+		{
+			if (null != process)
+			{
+				//Died between two apps
+				kill();
+			}
+			//Warming a new worker up is not part of the time given to the app
+			startWarm();
+			start = System.currentTimeMillis();
+		}
+
+		toWorker.println(apkPath);
+		toWorker.flush();
+
+		String record = waitFor(apkPath + "\t", apkPath, timeout);
+		if (null != record)
+		{
+			return record;
+		}
+
+		kill();
+
+		return getFailureRecord(apkPath, start);
+	}
+
+	/**
+	 * Start a worker and wait until it is warmed up.
+	 */
+	private void startWarm() throws IOException
+	{
+		for (int attempt = 1; attempt <= WARM_UP_ATTEMPTS; attempt++)
+		{
+			start();
+			if (null != waitFor(READY, "warm-up", warmUpTimeout))
+			{
+				return;
+			}
+			kill();
+		}
+
+		throw new IOException("No worker could be warmed up in " + WARM_UP_ATTEMPTS + " attempts");
+	}
+
+	private static String getFailureRecord(String apkPath, long start)
+	{
+		return apkPath + "\t" + "FAILED" + "\t" + (System.currentTimeMillis() - start) + "\t0\t0";
+	}
+
+	/**
+	 * @return the next line of the worker starting with prefix, or null if the worker dies or times out before printing it
+	 */
+	private String waitFor(String prefix, String what, long timeout)
+	{
+		long start = System.currentTimeMillis();
+
+		try
+		{
+			while (true)
+			{
+				long remaining = timeout > 0 ? start + timeout - System.currentTimeMillis() : Long.MAX_VALUE;
+				String line = remaining > 0 ? fromWorker.poll(remaining, TimeUnit.MILLISECONDS) : null;
+
+				if (null == line)
+				{
+					System.out.println("Worker timed out after " + timeout + " ms on " + what + ", restarting it");
+					return null;
+				}
+				if (EOF == line)
+				{
+					//The worker has died
+					return null;
+				}
+				if (line.startsWith(prefix))
+				{
+					return line;
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Stop the worker right away, whatever it is doing: the next app starts a new one.
+	 */
+	private void kill()
+	{
+		toWorker.close();
+		process.destroyForcibly();
+		try
+		{
+			process.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		process = null;
+
+		//A killed worker has not cleaned up after its app (see Kage.clean())
+		FileUtils.deleteQuietly(workDir);
+	}
+
+	public void stop()
+	{
+		if (null == process)
+		{
+			return;
+		}
+
+		toWorker.close();
+		try
+		{
+			if (! process.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS))
+			{
+				process.destroyForcibly();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+
+		process = null;
+		FileUtils.deleteQuietly(workDir);
+	}
+}
@@ -1,12 +1,21 @@
 package lu.uni.snt.cid.api;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import lu.uni.snt.cid.AnalysisContext;
+import lu.uni.snt.cid.Config;
+import lu.uni.snt.cid.dcl.DexCache;
 import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.SootUtils;
 import soot.G;
 import soot.PackManager;
 import soot.Transform;
@@ -20,21 +29,192 @@ public class APIExtractor
 	public Map<String, Set<String>> api2callers = new HashMap<String, Set<String>>();
 	public Set<String> usedAndroidAPIs = new HashSet<String>();
 	
+	private AnalysisContext context;
+	
+	public APIExtractor(AnalysisContext context)
+	{
+		this.context = context;
+	}
+	
 	public void transform(String apkOrDexPath, String androidJars, int apiLevel)
+	{
+		boolean primary = apkOrDexPath.endsWith(".apk");
+		
+		//Additional DEX files are often shared by many apps, the primary one very rarely is
+		String dexKey = primary ? null : getCacheKey(apkOrDexPath, apiLevel);
+		DexSummary summary = lookup(dexKey);
+		
+		if (null == summary)
+		{
+			summary = extract(Collections.singletonList(apkOrDexPath), androidJars, apiLevel).get(apkOrDexPath);
+			store(dexKey, summary);
+		}
+		
+		merge(summary, primary);
+	}
+	
+	/**
+	 * Same as calling transform() on the APK and then on every additional DEX file,
+	 * but with a single Soot run (and thus a single Scene) for all of them.
+	 * Every collected API is still attributed to the DEX file its callers come from.
+	 */
+	public void transformAll(String apkPath, Set<String> additionalDexes, String androidJars, int apiLevel)
+	{
+		List<String> toExtract = new ArrayList<String>();
+		toExtract.add(apkPath);
+		
+		Map<String, String> dex2cacheKey = new HashMap<String, String>();
+		Map<String, DexSummary> dex2cachedSummary = new LinkedHashMap<String, DexSummary>();
+		for (String dex : additionalDexes)
+		{
+			String dexKey = getCacheKey(dex, apiLevel);
+			DexSummary summary = lookup(dexKey);
+			
+			if (null == summary)
+			{
+				toExtract.add(dex);
+				dex2cacheKey.put(dex, dexKey);
+			}
+			else
+			{
+				//Its SDK_INT helpers are given to the ones extracted
+				dex2cachedSummary.put(dex, summary);
+				context.sdkSummaries.merge(summary.sdkSummaries);
+			}
+		}
+		
+		Map<String, DexSummary> origin2summary = extract(toExtract, androidJars, apiLevel);
+		for (String apkOrDexPath : toExtract)
+		{
+			DexSummary summary = origin2summary.get(apkOrDexPath);
+			
+			store(dex2cacheKey.get(apkOrDexPath), summary);
+			merge(summary, apkOrDexPath.equals(apkPath));
+		}
+		
+		//The cached summaries were looked up before the APK gave its SDK_INT helpers: the ones it changes are analyzed again
+		for (Map.Entry<String, DexSummary> entry : dex2cachedSummary.entrySet())
+		{
+			DexSummary summary = entry.getValue();
+			
+			if (context.sdkSummaries.restrict(summary.externalReferences).sameAs(summary.externalSummaries))
+			{
+				merge(summary, false);
+			}
+			else
+			{
+				context.dexCacheHits--;
+				transform(entry.getKey(), androidJars, apiLevel);
+			}
+		}
+	}
+	
+	private String getCacheKey(String dexPath, int apiLevel)
+	{
+		if (null == Config.dexCacheDir)
+		{
+			return null;
+		}
+		
+		try
+		{
+			return new DexCache(Config.dexCacheDir).key(dexPath, apiLevel);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @return the summary cached for the DEX file analyzed with the SDK_INT helpers the app has given so far, or null
+	 */
+	private DexSummary lookup(String dexKey)
+	{
+		if (null == dexKey)
+		{
+			return null;
+		}
+		
+		DexCache cache = new DexCache(Config.dexCacheDir);
+		
+		DexSummary summary = null;
+		Set<String> externalReferences = cache.getExternalReferences(dexKey);
+		if (null != externalReferences)
+		{
+			summary = cache.get(cache.key(dexKey, context.sdkSummaries.restrict(externalReferences)));
+		}
+		
+		if (null == summary)
+		{
+			context.dexCacheMisses++;
+		}
+		else
+		{
+			context.dexCacheHits++;
+		}
+		
+		return summary;
+	}
+	
+	private void store(String dexKey, DexSummary summary)
+	{
+		if (null != dexKey)
+		{
+			DexCache cache = new DexCache(Config.dexCacheDir);
+			
+			cache.putExternalReferences(dexKey, summary.externalReferences);
+			cache.put(cache.key(dexKey, summary.externalSummaries), summary);
+		}
+	}
+	
+	private void merge(DexSummary summary, boolean primary)
+	{
+		if (primary)
+		{
+			primaryAPIs.addAll(summary.accessedAndroidAPIs);
+		}
+		else
+		{
+			secondaryAPIs.addAll(summary.accessedAndroidAPIs);
+		}
+		usedAndroidAPIs.addAll(summary.accessedAndroidAPIs);
+		CommonUtils.put(api2callers, summary.api2callers);
+		
+		context.ccg.merge(summary.edges);
+		if (null != summary.sdkSummaries)
+		{
+			context.sdkSummaries.merge(summary.sdkSummaries);
+		}
+		if (summary.containsSDKVersionChecker)
+		{
+			context.containsSDKVersionChecker = true;
+		}
+	}
+	
+	/**
+	 * @return APK or DEX file -> what has been collected from it
+	 */
+	private Map<String, DexSummary> extract(List<String> apkOrDexPaths, String androidJars, int apiLevel)
 	{
 		G.reset();
 		
-		String[] args =
-        {
-			"-process-dir", apkOrDexPath,
-            "-ire",
+		List<String> args = new ArrayList<String>();
+		for (String apkOrDexPath : apkOrDexPaths)
+		{
+			args.add("-process-dir");
+			args.add(apkOrDexPath);
+		}
+		Collections.addAll(args, 
+			"-ire",
 			"-pp",
 			"-keep-line-number",
 			"-allow-phantom-refs",
 			"-w",
 			"-p", "cg", "enabled:false",
-			"-src-prec", "apk"
-        };
+			"-src-prec", "apk");
 			
 		Options.v().set_output_format(Options.output_format_none);
 		if (-1 != apiLevel)
@@ -42,24 +222,14 @@ public class APIExtractor
 		else
 			Options.v().set_android_jars(androidJars);
 		
-		Mining4UTransformer transformer = new Mining4UTransformer();
+		Mining4UTransformer transformer = new Mining4UTransformer(context, apkOrDexPaths);
 		
 		PackManager.v().getPack("wjtp").add(new Transform("wjtp.Mining4UTransformer", transformer));
-		soot.Main.main(args);
-		
-		if (apkOrDexPath.endsWith(".apk"))
-		{
-			primaryAPIs.addAll(transformer.accessedAndroidAPIs);
-			usedAndroidAPIs.addAll(primaryAPIs);
-			CommonUtils.put(api2callers, transformer.api2callers);
-		}
-		else
-		{
-			secondaryAPIs.addAll(transformer.accessedAndroidAPIs);
-			usedAndroidAPIs.addAll(secondaryAPIs);
-			CommonUtils.put(api2callers, transformer.api2callers);
-		}
+		soot.Main.main(args.toArray(new String[args.size()]));
 		
 		G.reset();
+		SootUtils.reset();
+		
+		return transformer.getSummaries();
 	}
 }
@@ -0,0 +1,41 @@
+package lu.uni.snt.cid.api;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lu.uni.snt.cid.ccg.Edge;
+import lu.uni.snt.cid.ccg.SDKSummaries;
+
+/**
+ * What Mining4UTransformer collects from one APK or DEX file, in a form that can be cached (see DexCache).
+ */
+public class DexSummary implements Serializable
+{
+	private static final long serialVersionUID = 4361970285632498415L;
+	
+	public Set<String> accessedAndroidAPIs;
+	public Map<String, Set<String>> api2callers;
+	public List<Edge> edges;
+	
+	public boolean containsSDKVersionChecker = false;
+	
+	//The SDK_INT helpers declared in the DEX file, available to the ones analyzed after it
+	public SDKSummaries sdkSummaries = new SDKSummaries();
+	
+	//The methods and fields it refers to but which are declared neither in it nor in android.jar, i.e., the SDK_INT helpers
+	//the other DEX files of the app may give it, and the summaries of the ones it has been analyzed with:
+	//the summary only holds for an app giving it the same ones
+	public Set<String> externalReferences = new HashSet<String>();
+	public SDKSummaries externalSummaries = new SDKSummaries();
+	
+	public DexSummary(Set<String> accessedAndroidAPIs, Map<String, Set<String>> api2callers, List<Edge> edges, boolean containsSDKVersionChecker)
+	{
+		this.accessedAndroidAPIs = accessedAndroidAPIs;
+		this.api2callers = api2callers;
+		this.edges = edges;
+		this.containsSDKVersionChecker = containsSDKVersionChecker;
+	}
+}
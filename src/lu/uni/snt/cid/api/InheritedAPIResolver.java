@@ -0,0 +1,130 @@
+package lu.uni.snt.cid.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.Config;
+import soot.SootClass;
+import soot.SootMethod;
+
+/**
+ * Finds the Android API a method inherits, i.e., the first super class or interface (breadth-first)
+ * declaring an Android API with the same sub-signature.
+ *
+ * Both resolutions and misses are cached per (declaring class, sub-signature), and the ancestors of a class
+ * are only collected once. Since SootClasses are the keys, a resolver must not outlive the Scene it is used with.
+ */
+public class InheritedAPIResolver
+{
+	private static final String NONE = "";
+
+	public int hits = 0;
+	public int misses = 0;
+
+	private Map<SootClass, Map<String, String>> cache = new HashMap<SootClass, Map<String, String>>();
+	private Map<SootClass, List<SootClass>> class2ancestors = new HashMap<SootClass, List<SootClass>>();
+
+	/**
+	 * @return the signature of the Android API sootMethod inherits, or null
+	 */
+	public String resolve(SootMethod sootMethod)
+	{
+		SootClass sootClass = sootMethod.getDeclaringClass();
+		String subSignature = sootMethod.getSubSignature();
+
+		Map<String, String> subSig2API = cache.get(sootClass);
+		if (null == subSig2API)
+		{
+			subSig2API = new HashMap<String, String>();
+			cache.put(sootClass, subSig2API);
+		}
+
+		String api = subSig2API.get(subSignature);
+		if (null != api)
+		{
+			hits++;
+			return NONE == api ? null : api;
+		}
+
+		misses++;
+		api = NONE;
+
+		List<SootClass> ancestors = null;
+		try
+		{
+			ancestors = getAncestors(sootClass);
+		}
+		catch (RuntimeException ex)
+		{
+			//Soot cannot tell the super types of a class it has not resolved to the hierarchy level: nothing is inherited then
+			if (Config.DEBUG)
+				System.out.println("[DEBUG] No hierarchy for " + sootClass.getName() + ": " + ex.getMessage());
+
+			ancestors = Collections.emptyList();
+		}
+
+		for (SootClass ancestor : ancestors)
+		{
+			String newMethodSig = "<" + ancestor.getName() + ": " + subSignature + ">";
+
+			if (AndroidAPILifeModel.getInstance().isAndroidAPI(newMethodSig))
+			{
+				api = newMethodSig;
+				break;
+			}
+		}
+
+		subSig2API.put(subSignature, api);
+
+		return NONE == api ? null : api;
+	}
+
+	/**
+	 * @return the super classes and interfaces of sootClass, in breadth-first order and without duplicates
+	 */
+	public List<SootClass> getAncestors(SootClass sootClass)
+	{
+		List<SootClass> ancestors = class2ancestors.get(sootClass);
+		if (null != ancestors)
+		{
+			return ancestors;
+		}
+
+		ancestors = new ArrayList<SootClass>();
+		Set<SootClass> visited = new HashSet<SootClass>();
+
+		LinkedList<SootClass> workList = new LinkedList<SootClass>();
+		addSuperTypes(workList, sootClass);
+
+		while (! workList.isEmpty())
+		{
+			SootClass current = workList.removeFirst();
+
+			if (visited.add(current))
+			{
+				ancestors.add(current);
+				addSuperTypes(workList, current);
+			}
+		}
+
+		class2ancestors.put(sootClass, ancestors);
+
+		return ancestors;
+	}
+
+	private void addSuperTypes(List<SootClass> workList, SootClass sootClass)
+	{
+		if (sootClass.hasSuperclass())
+		{
+			workList.add(sootClass.getSuperclass());
+		}
+		workList.addAll(sootClass.getInterfaces());
+	}
+}
@@ -0,0 +1,96 @@
+package lu.uni.snt.cid.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU memo of resolved API lifetimes (see AndroidAPILifeModel.getLifetime()),
+ * shared by all the analyses of a process.
+ * 
+ * The entries are immutable; every get() returns a new APILife, which callers are free to modify.
+ */
+public class LifetimeCache 
+{
+	private static class Entry
+	{
+		final String signature;
+		final int minAPILevel;
+		final int maxAPILevel;
+		
+		Entry(APILife apiLife)
+		{
+			this.signature = apiLife.getSignature();
+			this.minAPILevel = apiLife.getMinAPILevel();
+			this.maxAPILevel = apiLife.getMaxAPILevel();
+		}
+	}
+	
+	private final int capacity;
+	private final LinkedHashMap<String, Entry> entries;
+	
+	public long hits = 0;
+	public long misses = 0;
+	public long evictions = 0;
+	
+	public LifetimeCache(final int capacity)
+	{
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				if (size() > capacity)
+				{
+					evictions++;
+					return true;
+				}
+				
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * @return a copy of the lifetime memoized for methodSignature, or null
+	 */
+	public synchronized APILife get(String methodSignature)
+	{
+		Entry entry = entries.get(methodSignature);
+		if (null == entry)
+		{
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		return new APILife(entry.signature, entry.minAPILevel, entry.maxAPILevel);
+	}
+	
+	public synchronized void put(String methodSignature, APILife apiLife)
+	{
+		if (capacity > 0)
+		{
+			entries.put(methodSignature, new Entry(apiLife));
+		}
+	}
+	
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+	
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+	
+	@Override
+	public synchronized String toString()
+	{
+		long lookups = hits + misses;
+		return String.format("%d hits / %d lookups (%.1f%%), %d/%d entries, %d evictions", hits, lookups, lookups > 0 ? 100.0 * hits / lookups : 0.0, entries.size(), capacity, evictions);
+	}
+}
@@ -1,22 +1,37 @@
 package lu.uni.snt.cid.api;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import lu.uni.snt.cid.AnalysisContext;
 import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.AndroidLibraries;
 import lu.uni.snt.cid.Config;
 import lu.uni.snt.cid.ccg.AndroidSDKVersionChecker;
+import lu.uni.snt.cid.ccg.ConditionalCallGraph;
+import lu.uni.snt.cid.ccg.Edge;
+import lu.uni.snt.cid.ccg.SDKSummaries;
 import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.MethodSignature;
 import soot.Body;
 import soot.PatchingChain;
 import soot.Scene;
 import soot.SceneTransformer;
 import soot.SootClass;
+import soot.SootFieldRef;
 import soot.SootMethod;
+import soot.SourceLocator;
 import soot.Unit;
 import soot.jimple.Stmt;
 import soot.util.Chain;
@@ -25,21 +40,64 @@ public class Mining4UTransformer extends SceneTransformer
 {
 	public Set<String> accessedAndroidAPIs = new HashSet<String>();
 	public Map<String, Set<String>> api2callers = new HashMap<String, Set<String>>();
+	public boolean containsSDKVersionChecker = false;
+	
+	//The edges of the DEX files at hand only, merged into the app's call graph afterwards
+	public ConditionalCallGraph ccg = new ConditionalCallGraph();
+	
+	//When several DEX files are loaded in the same Scene, the one each application class comes from
+	public Map<String, String> class2origin = new HashMap<String, String>();
+	public Set<String> sdkCheckerOrigins = new HashSet<String>();
+	
+	//The SDK_INT helpers of the DEX files at hand, and the ones used to scan them (including the other DEX files' ones)
+	public SDKSummaries sdkSummaries = new SDKSummaries();
+	private SDKSummaries allSDKSummaries = new SDKSummaries();
+	
+	//origin -> the methods and fields its classes refer to that may be SDK_INT helpers of other DEX files (see DexSummary.externalReferences)
+	public Map<String, Set<String>> origin2externalReferences = new HashMap<String, Set<String>>();
+	
+	//In parallel mode (see Config.minerThreads), the bodies of about this many methods (whole classes) per worker
+	public static final int CHUNK_SIZE = 256;
+	
+	private AnalysisContext context;
+	private List<String> origins;
+	
+	//Only valid for the Scene this transformer runs on
+	private InheritedAPIResolver inheritedAPIResolver = new InheritedAPIResolver();
+	
+	//Bytes allocated while processing the bodies, by the worker (of the parallel mode) or by all the workers
+	private long allocatedBytes = 0;
+	
+	/**
+	 * @param origins the APK and/or DEX files given to Soot, the first one being the default origin
+	 */
+	public Mining4UTransformer(AnalysisContext context, List<String> origins)
+	{
+		this.context = context;
+		this.origins = origins;
+	}
+	
+	/**
+	 * A worker of the parallel mode, sharing the read-only state of parent but collecting into its own buffers.
+	 */
+	private Mining4UTransformer(Mining4UTransformer parent)
+	{
+		this.context = parent.context;
+		this.origins = parent.origins;
+		this.class2origin = parent.class2origin;
+		this.allSDKSummaries = parent.allSDKSummaries;
+	}
 
-	private void extract(Body b)
+	/**
+	 * @return true if the body reads SDK_INT (directly or through a summarized helper), i.e., may contain SDK checks
+	 */
+	private boolean extract(Body b)
 	{
 		String callerMethodSig = b.getMethod().getSignature();
+		String origin = getOrigin(b.getMethod().getDeclaringClass().getName());
 		
-		if (b.toString().contains(Config.FIELD_VERSION_SDK_INT) || b.toString().contains(Config.FIELD_VERSION_SDK))
-		{
-			Config.containsSDKVersionChecker = true;
-			
-			if (b.toString().contains(Config.FIELD_VERSION_SDK))
-			{
-				if (Config.DEBUG)
-					System.out.println("[DEBUG] SDK Field (deprecated in API level 4) is still used!");
-			}
-		}
+		boolean readsSDKField = false;
+		boolean readsSDKInt = false;
 		
 		PatchingChain<Unit> units = b.getUnits();
 		
@@ -47,10 +105,32 @@ public class Mining4UTransformer extends SceneTransformer
 		{
 			Stmt stmt = (Stmt) unitIter.next();
 			
+			if (stmt.containsFieldRef())
+			{
+				SootFieldRef fieldRef = stmt.getFieldRef().getFieldRef();
+				String fieldSig = fieldRef.getSignature();
+				addExternalReference(origin, fieldRef.declaringClass(), fieldSig);
+				
+				if (Config.FIELD_VERSION_SDK_INT.equals(fieldSig))
+				{
+					readsSDKInt = true;
+				}
+				else if (Config.FIELD_VERSION_SDK.equals(fieldSig))
+				{
+					readsSDKField = true;
+				}
+			}
+			
+			if (! readsSDKInt && allSDKSummaries.refersTo(stmt))
+			{
+				readsSDKInt = true;
+			}
+			
 			if (stmt.containsInvokeExpr())
 			{
 				SootMethod sootMethod = stmt.getInvokeExpr().getMethod();
 				String methodSig = sootMethod.getSignature();
+				addExternalReference(origin, sootMethod.getDeclaringClass(), methodSig);
 				
 				if (AndroidAPILifeModel.getInstance().isAndroidAPI(methodSig))
 				{
@@ -59,29 +139,66 @@ public class Mining4UTransformer extends SceneTransformer
 					accessedAndroidAPIs.add(methodSig);
 					CommonUtils.put(api2callers, methodSig, callerMethodSig);
 				}
-				else if (AndroidAPILifeModel.getInstance().isInheritedAndroidAPI(methodSig))
+				else
 				{
-					methodSig = AndroidAPILifeModel.getInstance().method2inheritedAPIs.get(methodSig);
-					
-					methodSig = methodSig.replace("$", ".");
-					
-					accessedAndroidAPIs.add(methodSig);
-					CommonUtils.put(api2callers, methodSig, callerMethodSig);
+					String inheritedAPI = inheritedAPIResolver.resolve(sootMethod);
+					if (null != inheritedAPI)
+					{
+						methodSig = inheritedAPI.replace("$", ".");
+						
+						accessedAndroidAPIs.add(methodSig);
+						CommonUtils.put(api2callers, methodSig, callerMethodSig);
+					}
 				}
 			}
 		}
+		
+		if (readsSDKInt || readsSDKField)
+		{
+			containsSDKVersionChecker = true;
+			sdkCheckerOrigins.add(origin);
+			
+			if (readsSDKField)
+			{
+				if (Config.DEBUG)
+					System.out.println("[DEBUG] SDK Field (deprecated in API level 4) is still used!");
+			}
+		}
+		
+		return readsSDKInt;
+	}
+	
+	/**
+	 * Record a reference to a method or field declared neither in the DEX file of the caller nor in android.jar.
+	 */
+	private void addExternalReference(String origin, SootClass declaringClass, String signature)
+	{
+		if (declaringClass.isPhantom() || (declaringClass.isApplicationClass() && ! origin.equals(getOrigin(declaringClass.getName()))))
+		{
+			CommonUtils.put(origin2externalReferences, origin, signature);
+		}
 	}
 	
 	protected void internalBodyTransform(Body b) 
 	{
-		extract(b);
+		boolean readsSDKInt = extract(b);
 		
-		AndroidSDKVersionChecker.scan(b);
+		AndroidSDKVersionChecker.scan(b, ccg, allSDKSummaries, readsSDKInt);
 	}
 
 	@Override
 	protected void internalTransform(String arg0, Map<String, String> arg1) 
 	{
+		long start = System.currentTimeMillis();
+		
+		if (origins.size() > 1)
+		{
+			indexOrigins();
+		}
+		
+		List<Body> bodies = new ArrayList<Body>();
+		int skippedLibraryClasses = 0;
+		
 		Chain<SootClass> sootClasses = Scene.v().getApplicationClasses();
 		for (Iterator<SootClass> iter = sootClasses.snapshotIterator(); iter.hasNext(); )
 		{
@@ -92,6 +209,12 @@ public class Mining4UTransformer extends SceneTransformer
 				continue;
 			}
 			
+			if (Config.skipLibraries && AndroidLibraries.isAndroidLibrary(sc.getName()))
+			{
+				skippedLibraryClasses++;
+				continue;
+			}
+			
 			List<SootMethod> methods = sc.getMethods();
 			
 			for (int i = 0; i < methods.size(); i++)
@@ -109,9 +232,245 @@ public class Mining4UTransformer extends SceneTransformer
 				}
 				
 				if (null != body)
-					internalBodyTransform(body);
+					bodies.add(body);
+			}
+		}
+		
+		//SDK_INT helpers are summarized first, so that their callers are scanned with the summaries
+		long summaryStart = System.currentTimeMillis();
+		sdkSummaries = SDKSummaries.compute(bodies, context.sdkSummaries);
+		allSDKSummaries.merge(context.sdkSummaries);
+		allSDKSummaries.merge(sdkSummaries);
+		if (Config.DEBUG)
+			System.out.println("[DEBUG] SDK_INT summaries: " + sdkSummaries + " (" + sdkSummaries.rounds + " rounds, " + (System.currentTimeMillis() - summaryStart) + " ms)");
+		
+		if (Config.minerThreads > 1)
+		{
+			processInParallel(bodies);
+		}
+		else
+		{
+			long allocated = CommonUtils.getAllocatedBytes();
+			for (Body body : bodies)
+			{
+				internalBodyTransform(body);
+			}
+			allocatedBytes = allocated < 0 ? -1 : CommonUtils.getAllocatedBytes() - allocated;
+		}
+		
+		context.inheritedAPIHits += inheritedAPIResolver.hits;
+		context.inheritedAPIMisses += inheritedAPIResolver.misses;
+		
+		if (Config.DEBUG)
+			System.out.println("[DEBUG] wjtp.Mining4UTransformer took " + (System.currentTimeMillis() - start) + " ms"
+					+ " (" + Config.minerThreads + " thread(s), " + bodies.size() + " bodies, " + skippedLibraryClasses + " library classes skipped)"
+					+ (allocatedBytes < 0 ? "" : ", processing them allocated " + allocatedBytes / (1024 * 1024) + " MB"));
+	}
+	
+	/**
+	 * Process the bodies with Config.minerThreads threads. Consecutive classes are grouped in chunks, each processed
+	 * by its own worker, and the workers are merged in the order of the chunks: the result neither depends on
+	 * the number of threads nor on their scheduling.
+	 */
+	private void processInParallel(List<Body> bodies)
+	{
+		//Resolving a method may add a phantom one to the Scene, which is not thread-safe: all are resolved beforehand
+		for (Body b : bodies)
+		{
+			for (Unit unit : b.getUnits())
+			{
+				Stmt stmt = (Stmt) unit;
+				if (stmt.containsInvokeExpr())
+				{
+					stmt.getInvokeExpr().getMethod();
+				}
+			}
+		}
+		AndroidAPILifeModel.getInstance();
+		
+		List<Callable<Mining4UTransformer>> tasks = new ArrayList<Callable<Mining4UTransformer>>();
+		int from = 0;
+		for (int i = 1; i <= bodies.size(); i++)
+		{
+			if (i == bodies.size() || (i - from >= CHUNK_SIZE && bodies.get(i).getMethod().getDeclaringClass() != bodies.get(i - 1).getMethod().getDeclaringClass()))
+			{
+				tasks.add(newWorkerTask(bodies.subList(from, i)));
+				from = i;
 			}
 		}
 		
+		ForkJoinPool pool = new ForkJoinPool(Config.minerThreads);
+		try
+		{
+			allocatedBytes = 0;
+			for (Future<Mining4UTransformer> future : pool.invokeAll(tasks))
+			{
+				merge(future.get());
+			}
+		}
+		catch (InterruptedException | ExecutionException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	private Callable<Mining4UTransformer> newWorkerTask(final List<Body> chunk)
+	{
+		return new Callable<Mining4UTransformer>() 
+		{
+			@Override
+			public Mining4UTransformer call()
+			{
+				Mining4UTransformer worker = new Mining4UTransformer(Mining4UTransformer.this);
+				
+				long allocated = CommonUtils.getAllocatedBytes();
+				for (Body body : chunk)
+				{
+					worker.internalBodyTransform(body);
+				}
+				worker.allocatedBytes = allocated < 0 ? -1 : CommonUtils.getAllocatedBytes() - allocated;
+				
+				return worker;
+			}
+		};
+	}
+	
+	private void merge(Mining4UTransformer worker)
+	{
+		accessedAndroidAPIs.addAll(worker.accessedAndroidAPIs);
+		CommonUtils.put(api2callers, worker.api2callers);
+		ccg.merge(worker.ccg.getEdges());
+		
+		containsSDKVersionChecker |= worker.containsSDKVersionChecker;
+		sdkCheckerOrigins.addAll(worker.sdkCheckerOrigins);
+		CommonUtils.put(origin2externalReferences, worker.origin2externalReferences);
+		
+		inheritedAPIResolver.hits += worker.inheritedAPIResolver.hits;
+		inheritedAPIResolver.misses += worker.inheritedAPIResolver.misses;
+		
+		allocatedBytes = allocatedBytes < 0 || worker.allocatedBytes < 0 ? -1 : allocatedBytes + worker.allocatedBytes;
+	}
+	
+	/**
+	 * Record which of the given DEX files every application class has been loaded from.
+	 */
+	private void indexOrigins()
+	{
+		Map<String, String> canonicalPath2origin = new HashMap<String, String>();
+		for (String origin : origins)
+		{
+			canonicalPath2origin.put(getCanonicalPath(new File(origin)), origin);
+		}
+		
+		Map<String, File> dexClassIndex = SourceLocator.v().dexClassIndex();
+		if (null == dexClassIndex)
+		{
+			return;
+		}
+		
+		for (Iterator<SootClass> iter = Scene.v().getApplicationClasses().snapshotIterator(); iter.hasNext(); )
+		{
+			String cls = iter.next().getName();
+			
+			File dexFile = dexClassIndex.get(cls);
+			if (null != dexFile)
+			{
+				String origin = canonicalPath2origin.get(getCanonicalPath(dexFile));
+				if (null != origin)
+				{
+					class2origin.put(cls, origin);
+				}
+			}
+		}
+	}
+	
+	private String getCanonicalPath(File file)
+	{
+		try
+		{
+			return file.getCanonicalPath();
+		}
+		catch (IOException ex)
+		{
+			return file.getAbsolutePath();
+		}
+	}
+	
+	private String getOrigin(String cls)
+	{
+		String origin = class2origin.get(cls);
+		
+		return null == origin ? origins.get(0) : origin;
+	}
+	
+	public DexSummary getSummary()
+	{
+		DexSummary summary = new DexSummary(accessedAndroidAPIs, api2callers, ccg.getEdges(), containsSDKVersionChecker);
+		summary.sdkSummaries = sdkSummaries;
+		setExternalSummaries(summary, origins.get(0));
+		
+		return summary;
+	}
+	
+	private void setExternalSummaries(DexSummary summary, String origin)
+	{
+		if (origin2externalReferences.containsKey(origin))
+		{
+			summary.externalReferences = origin2externalReferences.get(origin);
+			summary.externalSummaries = allSDKSummaries.restrict(summary.externalReferences);
+		}
+	}
+	
+	/**
+	 * Split what has been collected according to the DEX file the callers come from.
+	 * 
+	 * @return origin (as given to the constructor) -> its summary
+	 */
+	public Map<String, DexSummary> getSummaries()
+	{
+		Map<String, DexSummary> origin2summary = new HashMap<String, DexSummary>();
+		if (origins.size() == 1)
+		{
+			origin2summary.put(origins.get(0), getSummary());
+			return origin2summary;
+		}
+		
+		for (String origin : origins)
+		{
+			origin2summary.put(origin, new DexSummary(new HashSet<String>(), new HashMap<String, Set<String>>(), new ArrayList<Edge>(), sdkCheckerOrigins.contains(origin)));
+		}
+		
+		for (Map.Entry<String, Set<String>> entry : api2callers.entrySet())
+		{
+			String api = entry.getKey();
+			for (String caller : entry.getValue())
+			{
+				DexSummary summary = origin2summary.get(getOrigin(MethodSignature.of(caller).getCls()));
+				
+				summary.accessedAndroidAPIs.add(api);
+				CommonUtils.put(summary.api2callers, api, caller);
+			}
+		}
+		
+		for (Edge edge : ccg.getEdges())
+		{
+			origin2summary.get(getOrigin(MethodSignature.of(edge.srcSig).getCls())).edges.add(edge);
+		}
+		
+		for (Map.Entry<String, SDKSummaries> entry : sdkSummaries.split(class2origin, origins.get(0)).entrySet())
+		{
+			origin2summary.get(entry.getKey()).sdkSummaries = entry.getValue();
+		}
+		
+		for (Map.Entry<String, DexSummary> entry : origin2summary.entrySet())
+		{
+			setExternalSummaries(entry.getValue(), entry.getKey());
+		}
+		
+		return origin2summary;
 	}
 }
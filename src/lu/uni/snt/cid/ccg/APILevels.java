@@ -0,0 +1,117 @@
+package lu.uni.snt.cid.ccg;
+
+/**
+ * Sets of Android API levels, as bitmasks: bit i is set if the code at hand may run on API level i (1..63).
+ */
+public class APILevels
+{
+	public static final int MAX_LEVEL = 63;
+
+	public static final long NONE = 0L;
+	public static final long ALL = ~1L;
+
+	/**
+	 * @return the levels from..to (inclusive), clamped to 1..MAX_LEVEL
+	 */
+	public static long range(int from, int to)
+	{
+		from = Math.max(from, 1);
+		to = Math.min(to, MAX_LEVEL);
+		if (from > to)
+		{
+			return NONE;
+		}
+
+		long upTo = MAX_LEVEL == to ? -1L : (1L << (to + 1)) - 1;
+		long below = (1L << from) - 1;
+
+		return upTo & ~below;
+	}
+
+	/**
+	 * @param op one of ==, !=, <, <=, >, >=
+	 * @return the levels for which "SDK_INT op constant" holds
+	 */
+	public static long compare(String op, int constant)
+	{
+		switch (op)
+		{
+		case "==":
+			return range(constant, constant);
+		case "!=":
+			return ALL & ~range(constant, constant);
+		case "<":
+			return range(1, constant - 1);
+		case "<=":
+			return range(1, constant);
+		case ">":
+			return range(constant + 1, MAX_LEVEL);
+		case ">=":
+			return range(constant, MAX_LEVEL);
+		default:
+			return ALL;
+		}
+	}
+
+	/**
+	 * @return the operator to use once the operands of "constant op SDK_INT" are swapped
+	 */
+	public static String mirror(String op)
+	{
+		switch (op)
+		{
+		case "<":
+			return ">";
+		case "<=":
+			return ">=";
+		case ">":
+			return "<";
+		case ">=":
+			return "<=";
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * @return true if one of the levels from..to (inclusive) is in levels
+	 */
+	public static boolean intersects(long levels, int from, int to)
+	{
+		return NONE != (levels & range(from, to));
+	}
+
+	/**
+	 * @return the levels as ranges, e.g., [1-20, 23]
+	 */
+	public static String toString(long levels)
+	{
+		StringBuilder sb = new StringBuilder("[");
+
+		int level = 1;
+		while (level <= MAX_LEVEL)
+		{
+			if (0 == (levels & (1L << level)))
+			{
+				level++;
+				continue;
+			}
+
+			int end = level;
+			while (end < MAX_LEVEL && 0 != (levels & (1L << (end + 1))))
+			{
+				end++;
+			}
+
+			if (sb.length() > 1)
+			{
+				sb.append(", ");
+			}
+			sb.append(level == end ? String.valueOf(level) : level + "-" + end);
+
+			level = end + 1;
+		}
+
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,32 @@
+package lu.uni.snt.cid.ccg;
+
+import java.util.BitSet;
+
+/**
+ * The callers already emitted for one report (see ConditionalCallGraph.obtainCallerDAG).
+ *
+ * Nodes are named after their method id in the graph ("N<id>"), so that the callers shared by
+ * several APIs are only printed once, the later APIs simply referring to them.
+ */
+public class CallerDAG
+{
+	public int maxDepth;
+	public int maxFanOut;
+
+	public int nodes = 0;
+	public int edges = 0;
+
+	BitSet emittedNodes = new BitSet();
+	//Nodes whose callers have been emitted (not the ones cut by the depth limit)
+	BitSet expandedNodes = new BitSet();
+
+	/**
+	 * @param maxDepth the number of caller levels to follow from every queried method
+	 * @param maxFanOut the maximum number of callers emitted for a single method
+	 */
+	public CallerDAG(int maxDepth, int maxFanOut)
+	{
+		this.maxDepth = maxDepth;
+		this.maxFanOut = maxFanOut;
+	}
+}
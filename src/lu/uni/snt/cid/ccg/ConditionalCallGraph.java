@@ -1,318 +1,885 @@
 package lu.uni.snt.cid.ccg;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import lu.uni.snt.cid.utils.MethodSignature;
+import lu.uni.snt.cid.Config;
+import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.StringInterner;
 
-public class ConditionalCallGraph 
+/**
+ * The conditional call graph of one app, owned by its AnalysisContext.
+ *
+ * Method signatures and conditions are interned, and an edge is an int id indexing the edge arrays
+ * (source, target, condition ids). The reverse adjacency (target -> incoming edges) used by the queries
+ * is built in CSR form (offsets + edge ids) once the edges are collected, and dropped whenever an edge is added.
+ */
+public class ConditionalCallGraph
 {
-	//public static Map<String, Set<Edge>> srcMethod2edges = new HashMap<String, Set<Edge>>();
-	public static Map<String, Set<Edge>> tgtMethod2edges = new HashMap<String, Set<Edge>>();
-	public static Map<String, Set<String>> cls2methods = new HashMap<String, Set<String>>();
-	
-	public static Map<String, Edge> existingEdges = new HashMap<String, Edge>();
-	
-	public static void addEdge(Edge edge)
+	public static final String NO_CONDITION = "[]";
+
+	public StringInterner methods = new StringInterner();
+	public StringInterner conditions = new StringInterner();
+
+	//(src << 32 | tgt) -> edge id
+	private Map<Long, Integer> existingEdges = new HashMap<Long, Integer>();
+
+	private int edgeCount = 0;
+	private int[] edgeSrcs = new int[1024];
+	private int[] edgeTgts = new int[1024];
+	private int[][] edgeConditions = new int[1024][];
+	//The API levels on which the call can happen, see APILevels
+	private long[] edgeLevels = new long[1024];
+
+	//Edges that have been collected (as opposed to the ones added by expandConstructors), see getEdges()
+	private BitSet collectedEdges = new BitSet();
+	//Edges that are part of the graph, i.e., not between the same method or empty signatures
+	private BitSet linkedEdges = new BitSet();
+
+	//Reverse adjacency, in CSR form: the edges targeting method m are inEdges[inOffsets[m] .. inOffsets[m+1]-1]
+	private int[] inOffsets = null;
+	private int[] inEdges = null;
+
+	//Class -> the methods (constructors excepted) at either end of an edge, and the called constructors,
+	//maintained as edges are linked
+	private Map<String, Set<Integer>> cls2methods = new HashMap<String, Set<Integer>>();
+	private Map<String, Set<Integer>> cls2constructors = new HashMap<String, Set<Integer>>();
+	private BitSet indexedMethods = new BitSet();
+	private BitSet indexedConstructors = new BitSet();
+
+	//Once expandConstructors() has been called, the edges it implies are added as soon as their ends are known
+	private boolean constructorsExpanded = false;
+	public int syntheticEdges = 0;
+
+	//Strongly connected components of the caller graph, and for each of them the conditions guarding
+	//at least one edge through which it can be reached (see computeSummaries())
+	private int[] method2scc = null;
+	private List<BitSet> sccConditions = null;
+	//For each method, the API levels on which it can run given the levels of the edges reaching it
+	private long[] reachableLevels = null;
+
+	/**
+	 * Record a call from srcSig to tgtSig happening under condition (the toString() of a set of conditions),
+	 * on the given API levels.
+	 *
+	 * @return the id of the edge
+	 */
+	public int addEdge(String srcSig, String tgtSig, String condition, long levels)
 	{
-		if (edge.srcSig.isEmpty() || edge.tgtSig.isEmpty())
+		int edge = getEdge(srcSig, tgtSig);
+		addCondition(edge, conditions.intern(condition));
+		edgeLevels[edge] |= levels;
+		link(edge);
+
+		return edge;
+	}
+
+	/**
+	 * Record a call from srcSig to tgtSig happening under all the conditions (and on the levels) of another edge.
+	 *
+	 * @return the id of the edge
+	 */
+	public int addEdge(String srcSig, String tgtSig, int conditionsOf)
+	{
+		int edge = getEdge(srcSig, tgtSig);
+		if (null != edgeConditions[conditionsOf])
 		{
-			return;
+			for (int condition : edgeConditions[conditionsOf])
+			{
+				addCondition(edge, condition);
+			}
 		}
-		
-		if (edge.srcSig.equals(edge.tgtSig))
+		edgeLevels[edge] |= edgeLevels[conditionsOf];
+		link(edge);
+
+		return edge;
+	}
+
+	private int getEdge(String srcSig, String tgtSig)
+	{
+		int edge = getEdge(methods.intern(srcSig), methods.intern(tgtSig));
+		collectedEdges.set(edge);
+
+		return edge;
+	}
+
+	private int getEdge(int src, int tgt)
+	{
+		Long key = ((long) src << 32) | tgt;
+
+		Integer edge = existingEdges.get(key);
+		if (null != edge)
 		{
-			return;
+			return edge;
 		}
-		
-		/*
-		if (srcMethod2edges.containsKey(edge.srcSig))
+
+		if (edgeCount == edgeSrcs.length)
 		{
-			Set<Edge> srcEdges = srcMethod2edges.get(edge.srcSig);
-			srcEdges.add(edge);
-			srcMethod2edges.put(edge.srcSig, srcEdges);
+			int capacity = 2 * edgeCount;
+			edgeSrcs = Arrays.copyOf(edgeSrcs, capacity);
+			edgeTgts = Arrays.copyOf(edgeTgts, capacity);
+			edgeConditions = Arrays.copyOf(edgeConditions, capacity);
+			edgeLevels = Arrays.copyOf(edgeLevels, capacity);
 		}
-		else
+
+		edgeSrcs[edgeCount] = src;
+		edgeTgts[edgeCount] = tgt;
+		existingEdges.put(key, edgeCount);
+
+		return edgeCount++;
+	}
+
+	private void addCondition(int edge, int condition)
+	{
+		int[] edgeConds = edgeConditions[edge];
+		if (null == edgeConds)
 		{
-			Set<Edge> srcEdges = new HashSet<Edge>();
-			srcEdges.add(edge);
-			srcMethod2edges.put(edge.srcSig, srcEdges);
-		}*/
-		
-		
-		
-		//We check tgtMethod2edges only because we will only leverage this map for traversing the call graph
-		/*if (! causeCircle(edge))
+			edgeConditions[edge] = new int[] { condition };
+			return;
+		}
+
+		for (int c : edgeConds)
 		{
-			if (tgtMethod2edges.containsKey(edge.tgtSig))
+			if (c == condition)
 			{
-				Set<Edge> tgtEdges = tgtMethod2edges.get(edge.tgtSig);
-				tgtEdges.add(edge);
-				tgtMethod2edges.put(edge.tgtSig, tgtEdges);
+				return;
 			}
-			else
-			{
-				Set<Edge> tgtEdges = new HashSet<Edge>();
-				tgtEdges.add(edge);
-				tgtMethod2edges.put(edge.tgtSig, tgtEdges);
-			}
-		}*/
-		
-		if (tgtMethod2edges.containsKey(edge.tgtSig))
+		}
+
+		edgeConds = Arrays.copyOf(edgeConds, edgeConds.length + 1);
+		edgeConds[edgeConds.length - 1] = condition;
+		edgeConditions[edge] = edgeConds;
+	}
+
+	private void link(int edge)
+	{
+		String srcSig = methods.get(edgeSrcs[edge]);
+		String tgtSig = methods.get(edgeTgts[edge]);
+
+		if (srcSig.isEmpty() || tgtSig.isEmpty() || edgeSrcs[edge] == edgeTgts[edge])
 		{
-			Set<Edge> tgtEdges = tgtMethod2edges.get(edge.tgtSig);
-			tgtEdges.add(edge);
-			tgtMethod2edges.put(edge.tgtSig, tgtEdges);
+			return;
 		}
-		else
+
+		if (! linkedEdges.get(edge))
 		{
-			Set<Edge> tgtEdges = new HashSet<Edge>();
-			tgtEdges.add(edge);
-			tgtMethod2edges.put(edge.tgtSig, tgtEdges);
+			linkedEdges.set(edge);
+			inOffsets = null;
+			inEdges = null;
+			method2scc = null;
+			sccConditions = null;
+			reachableLevels = null;
+
+			indexMethod(edgeSrcs[edge], srcSig, false);
+			indexMethod(edgeTgts[edge], tgtSig, true);
 		}
-		
-		if (! edge.srcSig.contains("<init>"))
+	}
+
+	/**
+	 * Index the method in the class -> methods/constructors maps, and if constructors are already expanded,
+	 * add the edges connecting it to the other side.
+	 */
+	private void indexMethod(int method, String methodSig, boolean isTarget)
+	{
+		if (methodSig.contains("<init>"))
 		{
-			String cls = new MethodSignature(edge.srcSig).getCls();
-			if (cls2methods.containsKey(cls))
+			//Only the called constructors are expanded
+			if (isTarget && ! indexedConstructors.get(method))
 			{
-				Set<String> methods = cls2methods.get(cls);
-				if (null == methods)
+				indexedConstructors.set(method);
+				String cls = getCls(methodSig);
+				CommonUtils.put(cls2constructors, cls, method);
+
+				if (constructorsExpanded)
 				{
-					methods = new HashSet<String>();
+					expandConstructor(method, cls2methods.get(cls));
 				}
-				methods.add(edge.srcSig);
-				cls2methods.put(cls, methods);
 			}
-			else
+		}
+		else if (! indexedMethods.get(method))
+		{
+			indexedMethods.set(method);
+			String cls = getCls(methodSig);
+			CommonUtils.put(cls2methods, cls, method);
+
+			if (constructorsExpanded && cls2constructors.containsKey(cls))
 			{
-				Set<String> methods = new HashSet<String>();
-				methods.add(edge.srcSig);
-				cls2methods.put(cls, methods);
+				for (int init : cls2constructors.get(cls))
+				{
+					addSyntheticEdge(init, method);
+				}
 			}
 		}
-		
-		if (! edge.tgtSig.contains("<init>"))
+	}
+
+	/**
+	 * @return all the collected edges (i.e., not the ones of expandConstructors), e.g., to cache them
+	 */
+	public List<Edge> getEdges()
+	{
+		List<Edge> edges = new ArrayList<Edge>();
+		for (int edge = collectedEdges.nextSetBit(0); edge >= 0; edge = collectedEdges.nextSetBit(edge + 1))
 		{
-			String cls = new MethodSignature(edge.tgtSig).getCls();
-			if (cls2methods.containsKey(cls))
+			Edge e = new Edge();
+			e.srcSig = methods.get(edgeSrcs[edge]);
+			e.tgtSig = methods.get(edgeTgts[edge]);
+			e.levels = edgeLevels[edge];
+			if (null != edgeConditions[edge])
 			{
-				Set<String> methods = cls2methods.get(cls);
-				if (null == methods)
+				for (int condition : edgeConditions[edge])
 				{
-					methods = new HashSet<String>();
+					e.conditions.add(conditions.get(condition));
 				}
-				methods.add(edge.tgtSig);
-				cls2methods.put(cls, methods);
 			}
-			else
+
+			edges.add(e);
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Add edges collected by another graph (e.g., for another DEX file), merging the conditions of identical edges.
+	 */
+	public void merge(List<Edge> edges)
+	{
+		for (Edge e : edges)
+		{
+			int edge = getEdge(e.srcSig, e.tgtSig);
+			for (String condition : e.conditions)
 			{
-				Set<String> methods = new HashSet<String>();
-				methods.add(edge.tgtSig);
-				cls2methods.put(cls, methods);
+				addCondition(edge, conditions.intern(condition));
 			}
+			edgeLevels[edge] |= e.levels;
+
+			link(edge);
 		}
 	}
-	
-	public static Edge getEdge(String srcSig, String tgtSig)
+
+	/**
+	 * Connect every called constructor to the (non-constructor) methods of its class appearing in the graph,
+	 * so that conditions guarding an instantiation also guard the calls made on the instance.
+	 *
+	 * Idempotent: afterwards, the edges added to the graph are expanded as they come (see indexMethod()).
+	 */
+	public void expandConstructors()
 	{
-		String key = srcSig + "/" + tgtSig;
-		if (existingEdges.containsKey(key))
+		if (constructorsExpanded)
 		{
-			return existingEdges.get(key);
+			return;
 		}
-		else
+		constructorsExpanded = true;
+
+		for (Map.Entry<String, Set<Integer>> entry : cls2constructors.entrySet())
 		{
-			Edge edge = new Edge();
-			edge.srcSig = srcSig;
-			edge.tgtSig = tgtSig;
-			
-			existingEdges.put(key, edge);
-			
-			return edge;
+			Set<Integer> clsMethods = cls2methods.get(entry.getKey());
+			for (int init : entry.getValue())
+			{
+				expandConstructor(init, clsMethods);
+			}
 		}
 	}
-	
-	public static void expandConstructors()
+
+	private void expandConstructor(int init, Set<Integer> clsMethods)
 	{
-		Set<String> initMethods = new HashSet<String>();
-		
-		for (String method : tgtMethod2edges.keySet())
+		if (null != clsMethods)
 		{
-			if (method.contains("<init>"))
+			for (int method : clsMethods)
 			{
-				initMethods.add(method);
+				addSyntheticEdge(init, method);
 			}
 		}
-		
-		for (String method : initMethods)
+	}
+
+	private void addSyntheticEdge(int init, int method)
+	{
+		int count = edgeCount;
+		int edge = getEdge(init, method);
+		if (edgeCount > count)
+		{
+			syntheticEdges++;
+		}
+		edgeLevels[edge] = APILevels.ALL;
+
+		link(edge);
+	}
+
+	private static String getCls(String methodSig)
+	{
+		return methodSig.substring(1, methodSig.indexOf(':'));
+	}
+
+	private void buildAdjacency()
+	{
+		inOffsets = new int[methods.size() + 1];
+		for (int edge = linkedEdges.nextSetBit(0); edge >= 0; edge = linkedEdges.nextSetBit(edge + 1))
+		{
+			inOffsets[edgeTgts[edge] + 1]++;
+		}
+		for (int m = 0; m < methods.size(); m++)
 		{
-			String cls = new MethodSignature(method).getCls();
-			
-			if (cls2methods.containsKey(cls))
+			inOffsets[m + 1] += inOffsets[m];
+		}
+
+		inEdges = new int[inOffsets[methods.size()]];
+		int[] next = Arrays.copyOf(inOffsets, methods.size());
+		for (int edge = linkedEdges.nextSetBit(0); edge >= 0; edge = linkedEdges.nextSetBit(edge + 1))
+		{
+			inEdges[next[edgeTgts[edge]]++] = edge;
+		}
+	}
+
+	private void ensureAdjacency()
+	{
+		if (null == inOffsets)
+		{
+			buildAdjacency();
+		}
+	}
+
+	/**
+	 * @return true if the condition is not the empty set of conditions
+	 */
+	private boolean isGuard(int condition)
+	{
+		return ! NO_CONDITION.equals(conditions.get(condition));
+	}
+
+	/**
+	 * @return the conditions of the edge, formatted as the set of condition strings it would be
+	 */
+	private String conditionsToString(int edge)
+	{
+		StringBuilder sb = new StringBuilder("[");
+		if (null != edgeConditions[edge])
+		{
+			for (int i = 0; i < edgeConditions[edge].length; i++)
 			{
-				Set<String> methods = cls2methods.get(cls);
-				for (String m : methods)
+				if (i > 0)
 				{
-					Edge edge = new Edge();
-					edge.srcSig = method;
-					edge.tgtSig = m;
-					
-					if (tgtMethod2edges.containsKey(edge.tgtSig))
+					sb.append(", ");
+				}
+				sb.append(conditions.get(edgeConditions[edge][i]));
+			}
+		}
+		sb.append("]");
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return the guarding conditions through which methodSig can be reached, i.e., the ones of all
+	 * the edges of all its (transitive) callers. Empty if methodSig is never called under any condition.
+	 */
+	public List<String> obtainConditions(String methodSig)
+	{
+		int method = methods.getId(methodSig);
+		if (-1 == method)
+		{
+			return new ArrayList<String>();
+		}
+
+		if (null == method2scc)
+		{
+			computeSummaries();
+		}
+
+		return toConditionList(sccConditions.get(method2scc[method]));
+	}
+
+	/**
+	 * @return the API levels (see APILevels) on which methodSig can run, i.e., the union over all the paths
+	 * reaching it of the levels allowed by every edge of the path. ALL for methods that are not called.
+	 */
+	public long obtainReachableLevels(String methodSig)
+	{
+		int method = methods.getId(methodSig);
+		if (-1 == method)
+		{
+			return APILevels.ALL;
+		}
+
+		if (null == method2scc)
+		{
+			computeSummaries();
+		}
+
+		return reachableLevels[method];
+	}
+
+	private List<String> toConditionList(BitSet conditionSet)
+	{
+		List<String> conditionList = new ArrayList<String>();
+		for (int condition = conditionSet.nextSetBit(0); condition >= 0; condition = conditionSet.nextSetBit(condition + 1))
+		{
+			conditionList.add(conditions.get(condition));
+		}
+
+		return conditionList;
+	}
+
+	/**
+	 * Condense the caller graph (method -> its callers) into strongly connected components with Tarjan's algorithm,
+	 * and summarize each of them. A component is only completed once all the components it can reach
+	 * (i.e., its transitive callers) are, so that its summary is the union of the conditions of the edges
+	 * targeting its methods and of the summaries of its callers' components.
+	 *
+	 * The reachable levels are computed in the same order: from the (already final) levels of the callers
+	 * in other components, then iterated to a fixpoint inside the component. Components without callers
+	 * outside of themselves are entry points, reachable on all levels.
+	 */
+	private void computeSummaries()
+	{
+		ensureAdjacency();
+
+		int n = methods.size();
+		method2scc = new int[n];
+		sccConditions = new ArrayList<BitSet>();
+		reachableLevels = new long[n];
+
+		int[] index = new int[n];
+		int[] lowLink = new int[n];
+		Arrays.fill(index, -1);
+		BitSet onStack = new BitSet();
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int nextIndex = 0;
+
+		//The explicit call stack of the depth-first search: method and position in its incoming edges
+		int[] callStack = new int[n];
+		int[] callPosition = new int[n];
+
+		BitSet empty = new BitSet();
+
+		for (int root = 0; root < n; root++)
+		{
+			if (-1 != index[root])
+			{
+				continue;
+			}
+
+			int depth = 0;
+			callStack[0] = root;
+			callPosition[0] = inOffsets[root];
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack.set(root);
+
+			while (depth >= 0)
+			{
+				int method = callStack[depth];
+
+				if (callPosition[depth] < inOffsets[method + 1])
+				{
+					int caller = edgeSrcs[inEdges[callPosition[depth]++]];
+
+					if (-1 == index[caller])
+					{
+						index[caller] = lowLink[caller] = nextIndex++;
+						stack[stackSize++] = caller;
+						onStack.set(caller);
+
+						depth++;
+						callStack[depth] = caller;
+						callPosition[depth] = inOffsets[caller];
+					}
+					else if (onStack.get(caller))
 					{
-						Set<Edge> tgtEdges = tgtMethod2edges.get(edge.tgtSig);
-						tgtEdges.add(edge);
-						tgtMethod2edges.put(edge.tgtSig, tgtEdges);
+						lowLink[method] = Math.min(lowLink[method], index[caller]);
 					}
-					else
+
+					continue;
+				}
+
+				if (lowLink[method] == index[method])
+				{
+					int scc = sccConditions.size();
+
+					List<Integer> members = new ArrayList<Integer>();
+					int member;
+					do
 					{
-						Set<Edge> tgtEdges = new HashSet<Edge>();
-						tgtEdges.add(edge);
-						tgtMethod2edges.put(edge.tgtSig, tgtEdges);
+						member = stack[--stackSize];
+						onStack.clear(member);
+						method2scc[member] = scc;
+						members.add(member);
 					}
+					while (member != method);
+
+					//Shared with a caller component as long as nothing else is added
+					BitSet summary = empty;
+					boolean owned = false;
+					for (int m : members)
+					{
+						for (int i = inOffsets[m]; i < inOffsets[m + 1]; i++)
+						{
+							int edge = inEdges[i];
+							int callerScc = method2scc[edgeSrcs[edge]];
+
+							if (callerScc != scc)
+							{
+								BitSet callerSummary = sccConditions.get(callerScc);
+								if (summary == empty || summary == callerSummary)
+								{
+									summary = callerSummary;
+								}
+								else if (! callerSummary.isEmpty())
+								{
+									if (! owned)
+									{
+										summary = (BitSet) summary.clone();
+										owned = true;
+									}
+									summary.or(callerSummary);
+								}
+							}
+
+							if (null != edgeConditions[edge])
+							{
+								for (int condition : edgeConditions[edge])
+								{
+									if (isGuard(condition) && ! summary.get(condition))
+									{
+										if (! owned)
+										{
+											summary = (BitSet) summary.clone();
+											owned = true;
+										}
+										summary.set(condition);
+									}
+								}
+							}
+						}
+					}
+
+					sccConditions.add(summary);
+					computeReachableLevels(scc, members);
+				}
+
+				depth--;
+				if (depth >= 0)
+				{
+					int parent = callStack[depth];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[method]);
 				}
 			}
 		}
 	}
-	
-	public static boolean causeCircle(Edge edge)
+
+	private void computeReachableLevels(int scc, List<Integer> members)
 	{
-		Set<String> visitedMethods = new HashSet<String>();
-		visitedMethods.add(edge.tgtSig);
-		
-		List<Edge> workList = new ArrayList<Edge>();
-		
-		if (tgtMethod2edges.containsKey(edge.tgtSig))
-		{
-			Set<Edge> edges = tgtMethod2edges.get(edge.tgtSig);
-			if (null != edges)
+		boolean called = false;
+		for (int m : members)
+		{
+			for (int i = inOffsets[m]; i < inOffsets[m + 1]; i++)
 			{
-				for (Edge e : edges)
+				int src = edgeSrcs[inEdges[i]];
+				if (method2scc[src] != scc)
 				{
-					workList.add(e);
+					reachableLevels[m] |= edgeLevels[inEdges[i]] & reachableLevels[src];
+					called = true;
 				}
 			}
-		}	
-		
-		while (! workList.isEmpty())
+		}
+
+		if (! called)
 		{
-			Edge e = workList.remove(0);
-			
-			if (visitedMethods.contains(e.srcSig))
+			for (int m : members)
 			{
-				return true;
+				reachableLevels[m] = APILevels.ALL;
 			}
-			else
+			return;
+		}
+
+		//Levels only grow, at most 63 times per method
+		boolean changed = members.size() > 1;
+		while (changed)
+		{
+			changed = false;
+			for (int m : members)
 			{
-				visitedMethods.add(e.srcSig);
-				
-				Set<Edge> edges = tgtMethod2edges.get(e.srcSig);
-				if (null != edges)
+				for (int i = inOffsets[m]; i < inOffsets[m + 1]; i++)
 				{
-					workList.addAll(edges);
+					int src = edgeSrcs[inEdges[i]];
+					if (method2scc[src] == scc)
+					{
+						long levels = reachableLevels[m] | (edgeLevels[inEdges[i]] & reachableLevels[src]);
+						if (levels != reachableLevels[m])
+						{
+							reachableLevels[m] = levels;
+							changed = true;
+						}
+					}
 				}
 			}
 		}
-		
-		return false;
 	}
-	
-	
-	public static List<String> obtainConditions(String methodSig)
+
+	/**
+	 * The former obtainConditions: a backward traversal from methodSig, only kept to cross-check the summaries.
+	 */
+	public List<String> obtainConditionsByTraversal(String methodSig)
 	{
-		List<String> conditions = new ArrayList<String>();
-		
-		if (! tgtMethod2edges.containsKey(methodSig))
-		{
-			return conditions;
-		}
-		
-		Set<Edge> edges = tgtMethod2edges.get(methodSig);
-		
-		List<Edge> workList = new ArrayList<Edge>();
-		workList.addAll(edges);
-		
-		Set<Edge> visitedEdges = new HashSet<Edge>();
-		
-		while (! workList.isEmpty())
-		{
-			Edge e = workList.remove(0);
-			visitedEdges.add(e);
-
-			String cond = e.conditions.toString().replaceAll("\\[", "").replaceAll("]", "");
-			
-			if (! cond.isEmpty())
-			{
-				conditions.add(e.conditions.toString());
-			}
-			
-			edges = tgtMethod2edges.get(e.srcSig);
-			
-			if (null != edges)
+		BitSet conditionSet = new BitSet();
+
+		int method = methods.getId(methodSig);
+		if (-1 == method)
+		{
+			return toConditionList(conditionSet);
+		}
+
+		ensureAdjacency();
+
+		BitSet visitedMethods = new BitSet();
+		visitedMethods.set(method);
+
+		int[] workList = new int[methods.size()];
+		int head = 0, tail = 0;
+		workList[tail++] = method;
+
+		while (head < tail)
+		{
+			int tgt = workList[head++];
+
+			for (int i = inOffsets[tgt]; i < inOffsets[tgt + 1]; i++)
 			{
-				for (Edge edge : edges)
+				int edge = inEdges[i];
+
+				if (null != edgeConditions[edge])
 				{
-					if (! visitedEdges.contains(edge))
+					for (int condition : edgeConditions[edge])
 					{
-						workList.add(edge);
+						if (isGuard(condition))
+						{
+							conditionSet.set(condition);
+						}
 					}
 				}
+
+				int src = edgeSrcs[edge];
+				if (! visitedMethods.get(src))
+				{
+					visitedMethods.set(src);
+					workList[tail++] = src;
+				}
 			}
-				
 		}
-		
-		return conditions;
+
+		return toConditionList(conditionSet);
 	}
-	
-	public static Set<String> visitedCalls = null;
-	
-	public static List<String> obtainCallStack(String methodSig)
+
+	/**
+	 * @return the number of methods for which the summaries and the traversal disagree
+	 */
+	public int verifySummaries()
+	{
+		int mismatches = 0;
+		for (int method = 0; method < methods.size(); method++)
+		{
+			String methodSig = methods.get(method);
+			if (! obtainConditions(methodSig).equals(obtainConditionsByTraversal(methodSig)))
+			{
+				if (Config.DEBUG)
+					System.out.println("[DEBUG] Condition summary mismatch for " + methodSig);
+
+				mismatches++;
+			}
+		}
+
+		return mismatches;
+	}
+
+	/**
+	 * Print the callers of methodSig, depth-first as an indented tree where every method appears once.
+	 */
+	public List<String> obtainCallStack(String methodSig)
 	{
 		List<String> callStack = new ArrayList<String>();
 		callStack.add(methodSig + "\n");
-		
+
 		String arrow = "> ";
-		
-		visitedCalls = new HashSet<String>();
-		visitedCalls.add(methodSig);
-		
-		if (null != tgtMethod2edges.get(methodSig))
+
+		int method = methods.getId(methodSig);
+		if (-1 == method)
 		{
-			for (Edge e : tgtMethod2edges.get(methodSig))
+			return callStack;
+		}
+
+		ensureAdjacency();
+
+		BitSet visitedCalls = new BitSet();
+		visitedCalls.set(method);
+
+		//Iterative, the edges of a method being pushed in reverse order to be visited in order
+		int[] edgeStack = new int[inEdges.length];
+		int[] depthStack = new int[inEdges.length];
+		int size = 0;
+		for (int i = inOffsets[method + 1] - 1; i >= inOffsets[method]; i--)
+		{
+			edgeStack[size] = inEdges[i];
+			depthStack[size++] = 1;
+		}
+
+		while (size > 0)
+		{
+			int edge = edgeStack[--size];
+			int depth = depthStack[size];
+			int src = edgeSrcs[edge];
+
+			//Circle found, Stop here
+			if (visitedCalls.get(src))
+			{
+				continue;
+			}
+			visitedCalls.set(src);
+
+			StringBuilder sb = new StringBuilder("|");
+			for (int d = 0; d < depth; d++)
 			{
-				obtainCallStack(callStack, "--" + arrow, e);
+				sb.append("--");
+			}
+			sb.append(arrow + methods.get(src) + " " + conditionsToString(edge) + "\n");
+			callStack.add(sb.toString());
+
+			for (int i = inOffsets[src + 1] - 1; i >= inOffsets[src]; i--)
+			{
+				if (size == edgeStack.length)
+				{
+					edgeStack = Arrays.copyOf(edgeStack, 2 * size);
+					depthStack = Arrays.copyOf(depthStack, 2 * size);
+				}
+				edgeStack[size] = inEdges[i];
+				depthStack[size++] = depth + 1;
 			}
 		}
 
 		return callStack;
 	}
-	
-	public static List<String> obtainCallStack(List<String> callStack, String arrow, Edge edge)
+
+	/**
+	 * The callers of methodSig as a DAG: "N<id> <signature>" for every node and "N<caller> -> N<callee> <conditions>"
+	 * for every edge, both only emitted if the same dag has not already emitted them for a previous query.
+	 * Callers are followed breadth-first up to dag.maxDepth levels and dag.maxFanOut callers per method.
+	 */
+	public List<String> obtainCallerDAG(String methodSig, CallerDAG dag)
 	{
-		//Circle found, Stop here
-		if (visitedCalls.contains(edge.srcSig))
+		List<String> lines = new ArrayList<String>();
+
+		int method = methods.getId(methodSig);
+		if (-1 == method)
 		{
-			return callStack;
+			lines.add("Root " + methodSig + " (no caller)\n");
+			return lines;
+		}
+
+		ensureAdjacency();
+
+		lines.add("Root N" + method + "\n");
+		emitNode(lines, dag, method);
+
+		//Nodes reached by this query, so that none is queued twice
+		BitSet reached = new BitSet();
+		reached.set(method);
+
+		int[] workList = new int[methods.size()];
+		int[] depths = new int[methods.size()];
+		int head = 0, tail = 0;
+		workList[tail] = method;
+		depths[tail++] = 0;
+
+		while (head < tail)
+		{
+			int tgt = workList[head];
+			int depth = depths[head++];
+
+			if (dag.expandedNodes.get(tgt))
+			{
+				continue;
+			}
+
+			int callers = inOffsets[tgt + 1] - inOffsets[tgt];
+			if (0 == callers)
+			{
+				dag.expandedNodes.set(tgt);
+				continue;
+			}
+			if (depth >= dag.maxDepth)
+			{
+				lines.add("N" + tgt + " ... (" + callers + " callers beyond depth " + dag.maxDepth + ")\n");
+				continue;
+			}
+
+			dag.expandedNodes.set(tgt);
+
+			int end = Math.min(inOffsets[tgt + 1], inOffsets[tgt] + dag.maxFanOut);
+			for (int i = inOffsets[tgt]; i < end; i++)
+			{
+				int edge = inEdges[i];
+				int src = edgeSrcs[edge];
+
+				emitNode(lines, dag, src);
+				lines.add("N" + src + " -> N" + tgt + " " + conditionsToString(edge) + "\n");
+				dag.edges++;
+
+				if (! reached.get(src))
+				{
+					reached.set(src);
+					workList[tail] = src;
+					depths[tail++] = depth + 1;
+				}
+			}
+			if (callers > dag.maxFanOut)
+			{
+				lines.add("N" + tgt + " ... (" + (callers - dag.maxFanOut) + " more callers)\n");
+			}
 		}
-		else
+
+		return lines;
+	}
+
+	private void emitNode(List<String> lines, CallerDAG dag, int method)
+	{
+		if (! dag.emittedNodes.get(method))
 		{
-			visitedCalls.add(edge.srcSig);
+			dag.emittedNodes.set(method);
+			dag.nodes++;
+			lines.add("N" + method + " " + methods.get(method) + "\n");
 		}
-		
-		callStack.add("|" + arrow + edge.srcSig + " " + edge.conditions + "\n");
-		
-		if (null != tgtMethod2edges.get(edge.srcSig))
+	}
+
+	public int getEdgeCount()
+	{
+		return edgeCount;
+	}
+
+	/**
+	 * Rough estimation of the heap used by the graph (see StringInterner.estimateHeapSize()).
+	 */
+	public long estimateHeapSize()
+	{
+		long size = methods.estimateHeapSize() + conditions.estimateHeapSize();
+
+		//existingEdges entry + Long + Integer, and the edge arrays
+		size += (long) edgeCount * (32 + 16 + 16);
+		size += (long) edgeSrcs.length * (4 + 4 + 4 + 8);
+		for (int edge = 0; edge < edgeCount; edge++)
 		{
-			for (Edge e : tgtMethod2edges.get(edge.srcSig))
+			if (null != edgeConditions[edge])
 			{
-				obtainCallStack(callStack, "--" + arrow, e);
+				size += 16 + 4 * edgeConditions[edge].length;
 			}
 		}
-		
-		return callStack;
+
+		if (null != inOffsets)
+		{
+			size += 4 * (inOffsets.length + inEdges.length);
+		}
+
+		return size;
 	}
 }
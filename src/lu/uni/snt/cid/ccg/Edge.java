@@ -1,15 +1,21 @@
 package lu.uni.snt.cid.ccg;
 
+import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
 
-public class Edge 
+public class Edge implements Serializable
 {
+	private static final long serialVersionUID = -3528741326466153785L;
+	
 	public String srcSig = "";
 	public String tgtSig = "";
 	
 	public Set<String> conditions = new HashSet<String>();
 	
+	//The API levels on which the call can happen, see APILevels
+	public long levels = APILevels.ALL;
+	
 	@Override
 	public String toString() 
 	{
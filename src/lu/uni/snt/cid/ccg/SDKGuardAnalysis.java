@@ -0,0 +1,397 @@
+package lu.uni.snt.cid.ccg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import lu.uni.snt.cid.Config;
+import soot.BooleanType;
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.AssignStmt;
+import soot.jimple.ConditionExpr;
+import soot.jimple.EqExpr;
+import soot.jimple.FieldRef;
+import soot.jimple.GeExpr;
+import soot.jimple.GtExpr;
+import soot.jimple.IfStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.LeExpr;
+import soot.jimple.LtExpr;
+import soot.jimple.NeExpr;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.ForwardBranchedFlowAnalysis;
+
+/**
+ * Intra-procedural forward analysis computing, before every unit, the locals that hold Build.VERSION.SDK_INT
+ * and the SDK checks (conditions of the IfStmts on such locals, "-" prefixed when not taken) it is guarded by.
+ *
+ * Both are must-information: at join points, only what holds on every incoming path is kept,
+ * so that a unit reachable without an SDK check is never considered as guarded.
+ *
+ * Along with them, the API levels (see APILevels) on which a unit can run, as allowed by the comparisons
+ * of SDK_INT with constants on the paths leading to it (may-information, united at join points).
+ *
+ * SDK_INT can also be obtained through the methods and static fields summarized in SDKSummaries,
+ * and checked through boolean locals (see Guards.guardLocals) holding the result of a guard method or field.
+ */
+public class SDKGuardAnalysis extends ForwardBranchedFlowAnalysis<SDKGuardAnalysis.Guards>
+{
+	public static class Guards
+	{
+		//False for units not reached (yet), the top of the lattice
+		public boolean reached = false;
+
+		public Set<Value> sdkIntLocals = new HashSet<Value>();
+		public Set<String> conditions = new TreeSet<String>();
+		public long levels = APILevels.NONE;
+
+		//Boolean locals depending on SDK_INT -> { levels on which they may be true, levels on which they may be false }
+		public Map<Value, long[]> guardLocals = new HashMap<Value, long[]>();
+
+		//Used by the flow analysis framework to detect changes
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (! (obj instanceof Guards))
+			{
+				return false;
+			}
+
+			Guards guards = (Guards) obj;
+			if (reached != guards.reached || levels != guards.levels || ! sdkIntLocals.equals(guards.sdkIntLocals)
+					|| ! conditions.equals(guards.conditions) || ! guardLocals.keySet().equals(guards.guardLocals.keySet()))
+			{
+				return false;
+			}
+
+			for (Map.Entry<Value, long[]> entry : guardLocals.entrySet())
+			{
+				if (! Arrays.equals(entry.getValue(), guards.guardLocals.get(entry.getKey())))
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (reached ? 1 : 0) + 31 * sdkIntLocals.hashCode() + 961 * conditions.hashCode() + Long.hashCode(levels);
+		}
+	}
+
+	private SDKSummaries summaries;
+
+	public SDKGuardAnalysis(UnitGraph graph)
+	{
+		this(graph, new SDKSummaries());
+	}
+
+	public SDKGuardAnalysis(UnitGraph graph, SDKSummaries summaries)
+	{
+		super(graph);
+		this.summaries = summaries;
+		doAnalysis();
+	}
+
+	@Override
+	protected void flowThrough(Guards in, Unit unit, List<Guards> fallOut, List<Guards> branchOuts)
+	{
+		Guards out = new Guards();
+		copy(in, out);
+
+		if (in.reached && unit instanceof AssignStmt)
+		{
+			AssignStmt assignStmt = (AssignStmt) unit;
+			Value leftOp = assignStmt.getLeftOp();
+			Value rightOp = assignStmt.getRightOp();
+
+			//Remove killed references
+			out.sdkIntLocals.remove(leftOp);
+			out.guardLocals.remove(leftOp);
+
+			if (isSDKInt(rightOp) || in.sdkIntLocals.contains(rightOp))
+			{
+				out.sdkIntLocals.add(leftOp);
+			}
+			else if (leftOp instanceof Local && (! (rightOp instanceof IntConstant) || leftOp.getType() instanceof BooleanType))
+			{
+				long[] guard = getGuard(rightOp, in);
+				if (null != guard)
+				{
+					out.guardLocals.put(leftOp, guard);
+				}
+			}
+		}
+
+		Guards branchOut = out;
+		if (in.reached && unit instanceof IfStmt)
+		{
+			Value condition = ((IfStmt) unit).getCondition();
+
+			//{ levels if taken, levels if not taken }
+			long[] levels = null;
+			if (isSDKCheck((IfStmt) unit, in))
+			{
+				long taken = getLevels(condition, in);
+				levels = APILevels.ALL == taken ? new long[] { APILevels.ALL, APILevels.ALL } : new long[] { taken, APILevels.ALL & ~taken };
+			}
+			else
+			{
+				levels = getGuardCheckLevels(condition, in);
+			}
+
+			if (null != levels)
+			{
+				branchOut = new Guards();
+				copy(out, branchOut);
+				branchOut.conditions.add(condition.toString());
+				branchOut.levels &= levels[0];
+
+				out.conditions.add("-" + condition);
+				out.levels &= levels[1];
+			}
+		}
+
+		for (Guards guards : fallOut)
+		{
+			copy(out, guards);
+		}
+		for (Guards guards : branchOuts)
+		{
+			copy(branchOut, guards);
+		}
+	}
+
+	private boolean isSDKInt(Value value)
+	{
+		if (value instanceof FieldRef)
+		{
+			String fieldSig = ((FieldRef) value).getFieldRef().getSignature();
+			return Config.FIELD_VERSION_SDK_INT.equals(fieldSig) || summaries.sdkIntFields.contains(fieldSig);
+		}
+
+		return value instanceof InvokeExpr && summaries.sdkIntMethods.contains(((InvokeExpr) value).getMethod().getSignature());
+	}
+
+	/**
+	 * @return { levels on which value may be true, levels on which it may be false } (restricted to the levels of in)
+	 * if value is a constant or a boolean depending on SDK_INT, null otherwise
+	 */
+	public long[] getGuard(Value value, Guards in)
+	{
+		long[] guard = in.guardLocals.get(value);
+		if (null != guard)
+		{
+			return guard;
+		}
+
+		if (value instanceof IntConstant)
+		{
+			return 0 != ((IntConstant) value).value ? new long[] { in.levels, APILevels.NONE } : new long[] { APILevels.NONE, in.levels };
+		}
+
+		if (value instanceof FieldRef)
+		{
+			guard = summaries.guardFields.get(((FieldRef) value).getFieldRef().getSignature());
+		}
+		else if (value instanceof InvokeExpr)
+		{
+			guard = summaries.guardMethods.get(((InvokeExpr) value).getMethod().getSignature());
+		}
+
+		return null == guard ? null : new long[] { guard[0] & in.levels, guard[1] & in.levels };
+	}
+
+	/**
+	 * @return true if the guard can be true on some of the levels and false on some others,
+	 * i.e., if checking it tells something about SDK_INT
+	 */
+	public static boolean isInformative(long[] guard, long levels)
+	{
+		long whenTrue = guard[0] & levels;
+		long whenFalse = guard[1] & levels;
+
+		return (APILevels.NONE != whenTrue && levels != whenTrue) || (APILevels.NONE != whenFalse && levels != whenFalse);
+	}
+
+	/**
+	 * @return { levels if taken, levels if not taken } if condition checks an informative guard local against a constant, null otherwise
+	 */
+	private long[] getGuardCheckLevels(Value condition, Guards in)
+	{
+		if (! (condition instanceof EqExpr || condition instanceof NeExpr))
+		{
+			return null;
+		}
+
+		Value op1 = ((ConditionExpr) condition).getOp1();
+		Value op2 = ((ConditionExpr) condition).getOp2();
+
+		long[] guard = in.guardLocals.get(op1);
+		Value constant = op2;
+		if (null == guard)
+		{
+			guard = in.guardLocals.get(op2);
+			constant = op1;
+		}
+
+		if (null == guard || ! (constant instanceof IntConstant) || ! isInformative(guard, in.levels))
+		{
+			return null;
+		}
+
+		//z != 0 and z == 1 hold when z is true
+		boolean whenTrue = (condition instanceof NeExpr) == (0 == ((IntConstant) constant).value);
+
+		return whenTrue ? new long[] { guard[0], guard[1] } : new long[] { guard[1], guard[0] };
+	}
+
+	private boolean isSDKCheck(IfStmt ifStmt, Guards in)
+	{
+		for (ValueBox vb : ifStmt.getCondition().getUseBoxes())
+		{
+			if (in.sdkIntLocals.contains(vb.getValue()))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the levels for which the condition (SDK_INT compared with a constant) holds, ALL if unknown
+	 */
+	private long getLevels(Value condition, Guards in)
+	{
+		if (! (condition instanceof ConditionExpr))
+		{
+			return APILevels.ALL;
+		}
+
+		ConditionExpr conditionExpr = (ConditionExpr) condition;
+		Value op1 = conditionExpr.getOp1();
+		Value op2 = conditionExpr.getOp2();
+
+		boolean sdkIntFirst = in.sdkIntLocals.contains(op1);
+		Value constant = sdkIntFirst ? op2 : op1;
+		if (! (constant instanceof IntConstant))
+		{
+			return APILevels.ALL;
+		}
+
+		String op = null;
+		if (condition instanceof GeExpr)
+			op = ">=";
+		else if (condition instanceof GtExpr)
+			op = ">";
+		else if (condition instanceof LeExpr)
+			op = "<=";
+		else if (condition instanceof LtExpr)
+			op = "<";
+		else if (condition instanceof EqExpr)
+			op = "==";
+		else if (condition instanceof NeExpr)
+			op = "!=";
+
+		if (null == op)
+		{
+			return APILevels.ALL;
+		}
+
+		//constant op SDK_INT
+		if (! sdkIntFirst)
+		{
+			op = APILevels.mirror(op);
+		}
+
+		return APILevels.compare(op, ((IntConstant) constant).value);
+	}
+
+	@Override
+	protected Guards newInitialFlow()
+	{
+		return new Guards();
+	}
+
+	@Override
+	protected Guards entryInitialFlow()
+	{
+		return unguarded();
+	}
+
+	/**
+	 * @return the guards of the entry of a body, i.e., what holds before any SDK check
+	 */
+	public static Guards unguarded()
+	{
+		Guards guards = new Guards();
+		guards.reached = true;
+		guards.levels = APILevels.ALL;
+
+		return guards;
+	}
+
+	@Override
+	protected void merge(Guards in1, Guards in2, Guards out)
+	{
+		if (! in1.reached)
+		{
+			copy(in2, out);
+		}
+		else if (! in2.reached)
+		{
+			copy(in1, out);
+		}
+		else
+		{
+			Set<Value> sdkIntLocals = new HashSet<Value>(in1.sdkIntLocals);
+			sdkIntLocals.retainAll(in2.sdkIntLocals);
+			Set<String> conditions = new TreeSet<String>(in1.conditions);
+			conditions.retainAll(in2.conditions);
+
+			out.reached = true;
+			out.sdkIntLocals = sdkIntLocals;
+			out.conditions = conditions;
+			out.levels = in1.levels | in2.levels;
+
+			Map<Value, long[]> guardLocals = new HashMap<Value, long[]>();
+			for (Map.Entry<Value, long[]> entry : in1.guardLocals.entrySet())
+			{
+				long[] guard1 = entry.getValue();
+				long[] guard2 = in2.guardLocals.get(entry.getKey());
+				if (null != guard2)
+				{
+					guardLocals.put(entry.getKey(), new long[] { (guard1[0] & in1.levels) | (guard2[0] & in2.levels), (guard1[1] & in1.levels) | (guard2[1] & in2.levels) });
+				}
+			}
+			out.guardLocals = guardLocals;
+		}
+	}
+
+	@Override
+	protected void copy(Guards source, Guards dest)
+	{
+		if (source == dest)
+		{
+			return;
+		}
+
+		dest.reached = source.reached;
+		dest.sdkIntLocals = new HashSet<Value>(source.sdkIntLocals);
+		dest.conditions = new TreeSet<String>(source.conditions);
+		dest.levels = source.levels;
+		dest.guardLocals = new HashMap<Value, long[]>(source.guardLocals);
+	}
+}
@@ -0,0 +1,371 @@
+package lu.uni.snt.cid.ccg;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lu.uni.snt.cid.Config;
+import soot.Body;
+import soot.BooleanType;
+import soot.IntType;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AssignStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.Stmt;
+
+/**
+ * What the methods and static fields of an app tell about Build.VERSION.SDK_INT, so that SDKGuardAnalysis
+ * can see through helpers:
+ *
+ * - the methods returning SDK_INT, and the static fields holding it;
+ * - the boolean methods and static fields whose value depends on SDK_INT (e.g., isAtLeastLollipop()),
+ *   with the API levels (see APILevels) on which they may be true and the ones on which they may be false.
+ */
+public class SDKSummaries implements Serializable
+{
+	private static final long serialVersionUID = 2871064390719460253L;
+
+	//Summaries depending on other summaries are found in the next round, up to this many rounds
+	public static final int MAX_ROUNDS = 5;
+
+	public Set<String> sdkIntMethods = new HashSet<String>();
+	public Set<String> sdkIntFields = new HashSet<String>();
+
+	//signature -> { levels on which it may be true, levels on which it may be false }
+	public Map<String, long[]> guardMethods = new HashMap<String, long[]>();
+	public Map<String, long[]> guardFields = new HashMap<String, long[]>();
+
+	public int rounds = 0;
+
+	public void merge(SDKSummaries summaries)
+	{
+		sdkIntMethods.addAll(summaries.sdkIntMethods);
+		sdkIntFields.addAll(summaries.sdkIntFields);
+		guardMethods.putAll(summaries.guardMethods);
+		guardFields.putAll(summaries.guardFields);
+	}
+
+	/**
+	 * @return the summaries of the given methods and fields only
+	 */
+	public SDKSummaries restrict(Set<String> signatures)
+	{
+		SDKSummaries summaries = new SDKSummaries();
+
+		for (String signature : signatures)
+		{
+			if (sdkIntMethods.contains(signature))
+			{
+				summaries.sdkIntMethods.add(signature);
+			}
+			if (sdkIntFields.contains(signature))
+			{
+				summaries.sdkIntFields.add(signature);
+			}
+			if (guardMethods.containsKey(signature))
+			{
+				summaries.guardMethods.put(signature, guardMethods.get(signature));
+			}
+			if (guardFields.containsKey(signature))
+			{
+				summaries.guardFields.put(signature, guardFields.get(signature));
+			}
+		}
+
+		return summaries;
+	}
+
+	public int size()
+	{
+		return sdkIntMethods.size() + sdkIntFields.size() + guardMethods.size() + guardFields.size();
+	}
+
+	/**
+	 * @param class2origin class -> the APK or DEX file it comes from, classes not in there coming from defaultOrigin
+	 * @return origin -> the summaries of the methods and fields declared in its classes
+	 */
+	public Map<String, SDKSummaries> split(Map<String, String> class2origin, String defaultOrigin)
+	{
+		Map<String, SDKSummaries> origin2summaries = new HashMap<String, SDKSummaries>();
+
+		for (String signature : sdkIntMethods)
+		{
+			getSummaries(origin2summaries, class2origin, defaultOrigin, signature).sdkIntMethods.add(signature);
+		}
+		for (String signature : sdkIntFields)
+		{
+			getSummaries(origin2summaries, class2origin, defaultOrigin, signature).sdkIntFields.add(signature);
+		}
+		for (Map.Entry<String, long[]> entry : guardMethods.entrySet())
+		{
+			getSummaries(origin2summaries, class2origin, defaultOrigin, entry.getKey()).guardMethods.put(entry.getKey(), entry.getValue());
+		}
+		for (Map.Entry<String, long[]> entry : guardFields.entrySet())
+		{
+			getSummaries(origin2summaries, class2origin, defaultOrigin, entry.getKey()).guardFields.put(entry.getKey(), entry.getValue());
+		}
+
+		return origin2summaries;
+	}
+
+	private static SDKSummaries getSummaries(Map<String, SDKSummaries> origin2summaries, Map<String, String> class2origin, String defaultOrigin, String signature)
+	{
+		String origin = class2origin.get(signature.substring(1, signature.indexOf(':')));
+		if (null == origin)
+		{
+			origin = defaultOrigin;
+		}
+
+		SDKSummaries summaries = origin2summaries.get(origin);
+		if (null == summaries)
+		{
+			summaries = new SDKSummaries();
+			origin2summaries.put(origin, summaries);
+		}
+
+		return summaries;
+	}
+
+	/**
+	 * Summarize the given bodies, in bounded rounds until nothing changes.
+	 *
+	 * @param known the summaries already computed for other DEX files of the app (not copied in the result)
+	 */
+	public static SDKSummaries compute(List<Body> bodies, SDKSummaries known)
+	{
+		//A static field is only summarized if all its stores are
+		Map<String, Integer> field2stores = new HashMap<String, Integer>();
+		for (Body b : bodies)
+		{
+			for (Unit unit : b.getUnits())
+			{
+				if (unit instanceof AssignStmt && ((AssignStmt) unit).getLeftOp() instanceof StaticFieldRef)
+				{
+					String fieldSig = ((FieldRef) ((AssignStmt) unit).getLeftOp()).getFieldRef().getSignature();
+					Integer stores = field2stores.get(fieldSig);
+					field2stores.put(fieldSig, null == stores ? 1 : stores + 1);
+				}
+			}
+		}
+
+		SDKSummaries summaries = new SDKSummaries();
+
+		while (summaries.rounds < MAX_ROUNDS)
+		{
+			SDKSummaries current = new SDKSummaries();
+			current.merge(known);
+			current.merge(summaries);
+
+			SDKSummaries found = new SDKSummaries();
+			found.rounds = summaries.rounds + 1;
+
+			Map<String, List<long[]>> field2values = new HashMap<String, List<long[]>>();
+			for (Body b : bodies)
+			{
+				if (current.isRelevant(b))
+				{
+					summarize(b, current, found, field2values);
+				}
+			}
+
+			for (Map.Entry<String, List<long[]>> entry : field2values.entrySet())
+			{
+				String fieldSig = entry.getKey();
+				List<long[]> values = entry.getValue();
+				if (values.size() != field2stores.get(fieldSig))
+				{
+					continue;
+				}
+
+				//SDK_INT stores are recorded as null
+				boolean allSDKInt = true;
+				boolean allSameGuard = true;
+				for (long[] value : values)
+				{
+					allSDKInt &= null == value;
+					allSameGuard &= null != value && Arrays.equals(value, values.get(0));
+				}
+
+				if (allSDKInt)
+				{
+					found.sdkIntFields.add(fieldSig);
+				}
+				else if (allSameGuard)
+				{
+					found.guardFields.put(fieldSig, values.get(0));
+				}
+			}
+
+			boolean changed = ! found.sameAs(summaries);
+			summaries = found;
+
+			if (! changed)
+			{
+				break;
+			}
+		}
+
+		return summaries;
+	}
+
+	public boolean sameAs(SDKSummaries summaries)
+	{
+		return sdkIntMethods.equals(summaries.sdkIntMethods) && sdkIntFields.equals(summaries.sdkIntFields)
+				&& sameAs(guardMethods, summaries.guardMethods) && sameAs(guardFields, summaries.guardFields);
+	}
+
+	private static boolean sameAs(Map<String, long[]> guards1, Map<String, long[]> guards2)
+	{
+		if (! guards1.keySet().equals(guards2.keySet()))
+		{
+			return false;
+		}
+
+		for (Map.Entry<String, long[]> entry : guards1.entrySet())
+		{
+			if (! Arrays.equals(entry.getValue(), guards2.get(entry.getKey())))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return true if the body refers to SDK_INT or to something summarized
+	 */
+	private boolean isRelevant(Body b)
+	{
+		for (Unit unit : b.getUnits())
+		{
+			if (refersTo((Stmt) unit))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if stmt reads SDK_INT or uses something summarized
+	 */
+	public boolean refersTo(Stmt stmt)
+	{
+		if (stmt.containsFieldRef())
+		{
+			String fieldSig = stmt.getFieldRef().getFieldRef().getSignature();
+			if (Config.FIELD_VERSION_SDK_INT.equals(fieldSig) || sdkIntFields.contains(fieldSig) || guardFields.containsKey(fieldSig))
+			{
+				return true;
+			}
+		}
+
+		if (stmt.containsInvokeExpr())
+		{
+			String methodSig = stmt.getInvokeExpr().getMethod().getSignature();
+			if (sdkIntMethods.contains(methodSig) || guardMethods.containsKey(methodSig))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static void summarize(Body b, SDKSummaries current, SDKSummaries found, Map<String, List<long[]>> field2values)
+	{
+		SDKGuardAnalysis analysis = new SDKGuardAnalysis(AndroidSDKVersionChecker.newUnitGraph(b), current);
+
+		int returns = 0;
+		boolean returnsSDKInt = true;
+		long[] returnedGuard = new long[] { APILevels.NONE, APILevels.NONE };
+
+		for (Unit unit : b.getUnits())
+		{
+			SDKGuardAnalysis.Guards guards = analysis.getFlowBefore(unit);
+			if (! guards.reached)
+			{
+				continue;
+			}
+
+			if (unit instanceof ReturnStmt)
+			{
+				Value op = ((ReturnStmt) unit).getOp();
+				returns++;
+
+				returnsSDKInt &= guards.sdkIntLocals.contains(op);
+
+				long[] guard = analysis.getGuard(op, guards);
+				if (null == guard)
+				{
+					returnedGuard = null;
+				}
+				else if (null != returnedGuard)
+				{
+					returnedGuard[0] |= guard[0] & guards.levels;
+					returnedGuard[1] |= guard[1] & guards.levels;
+				}
+			}
+			else if (unit instanceof AssignStmt && ((AssignStmt) unit).getLeftOp() instanceof StaticFieldRef)
+			{
+				String fieldSig = ((FieldRef) ((AssignStmt) unit).getLeftOp()).getFieldRef().getSignature();
+				Value rightOp = ((AssignStmt) unit).getRightOp();
+
+				long[] guard = analysis.getGuard(rightOp, guards);
+				if (guards.sdkIntLocals.contains(rightOp))
+				{
+					put(field2values, fieldSig, null);
+				}
+				else if (null != guard && APILevels.ALL == guards.levels && SDKGuardAnalysis.isInformative(guard, guards.levels))
+				{
+					//Only unconditional stores tell the value of the field on every level
+					put(field2values, fieldSig, guard);
+				}
+			}
+		}
+
+		if (0 == returns)
+		{
+			return;
+		}
+
+		String methodSig = b.getMethod().getSignature();
+		if (returnsSDKInt && b.getMethod().getReturnType() instanceof IntType)
+		{
+			found.sdkIntMethods.add(methodSig);
+		}
+		else if (null != returnedGuard && b.getMethod().getReturnType() instanceof BooleanType
+				&& SDKGuardAnalysis.isInformative(returnedGuard, APILevels.ALL))
+		{
+			found.guardMethods.put(methodSig, returnedGuard);
+		}
+	}
+
+	private static void put(Map<String, List<long[]>> field2values, String fieldSig, long[] value)
+	{
+		List<long[]> values = field2values.get(fieldSig);
+		if (null == values)
+		{
+			values = new ArrayList<long[]>();
+			field2values.put(fieldSig, values);
+		}
+		values.add(value);
+	}
+
+	@Override
+	public String toString()
+	{
+		return sdkIntMethods.size() + " SDK_INT methods, " + sdkIntFields.size() + " SDK_INT fields, "
+				+ guardMethods.size() + " guard methods, " + guardFields.size() + " guard fields";
+	}
+}
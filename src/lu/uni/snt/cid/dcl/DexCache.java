@@ -0,0 +1,225 @@
+package lu.uni.snt.cid.dcl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.Config;
+import lu.uni.snt.cid.api.DexSummary;
+import lu.uni.snt.cid.ccg.SDKSummaries;
+
+/**
+ * A persistent, content-addressed cache of DexSummary, so that a DEX payload shared by many apps
+ * (ad SDKs, packers, plugin frameworks) is only analyzed once per corpus.
+ * 
+ * DEX files are keyed by the SHA-256 of their bytes, the API level of the android.jar they are analyzed with
+ * and whether library classes are skipped (see Config.skipLibraries), the latest API level and revision of the API lifetime model.
+ * 
+ * What is collected from a DEX file also depends on the SDK_INT helpers the other DEX files of the app give it
+ * (see DexSummary.externalSummaries): the key of a DEX file holds the methods and fields it may take from them,
+ * and its summaries are keyed by the key of the DEX file and a digest of the summaries of those.
+ * 
+ * Everything is stored as <cacheDir>/<first two hex digits of the hash>/<key>.ser
+ */
+public class DexCache 
+{
+	//To be increased whenever what is stored in DexSummary changes
+	public static final int VERSION = 5;
+	
+	private String cacheDir;
+	
+	public DexCache(String cacheDir)
+	{
+		this.cacheDir = cacheDir;
+	}
+	
+	public String key(String dexPath, int apiLevel) throws IOException
+	{
+		AndroidAPILifeModel model = AndroidAPILifeModel.getInstance();
+		
+		return sha256(dexPath) + "-" + apiLevel + (Config.skipLibraries ? "-nolib" : "") + "-m" + model.getLatestAPILevel() + "." + model.getRevision() + "-v" + VERSION;
+	}
+	
+	/**
+	 * @param dexKey see key(String, int)
+	 * @param externalSummaries the summaries of the SDK_INT helpers the app gives to the DEX file, restricted to the ones it refers to
+	 */
+	public String key(String dexKey, SDKSummaries externalSummaries)
+	{
+		return dexKey + "-s" + digest(externalSummaries);
+	}
+	
+	/**
+	 * @return the cached summary, or null if the key is not in the cache (or cannot be read)
+	 */
+	public DexSummary get(String key)
+	{
+		return (DexSummary) read(key);
+	}
+	
+	public void put(String key, DexSummary summary)
+	{
+		write(key, summary);
+	}
+	
+	/**
+	 * @return the methods and fields the DEX file may take from the other DEX files of the app (see DexSummary.externalReferences),
+	 *         or null if it has never been analyzed
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<String> getExternalReferences(String dexKey)
+	{
+		return (Set<String>) read(dexKey);
+	}
+	
+	public void putExternalReferences(String dexKey, Set<String> externalReferences)
+	{
+		write(dexKey, new HashSet<String>(externalReferences));
+	}
+	
+	private Object read(String key)
+	{
+		File file = getFile(key);
+		if (! file.exists())
+		{
+			return null;
+		}
+		
+		try
+		{
+			ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+			Object obj = ois.readObject();
+			ois.close();
+			
+			return obj;
+		}
+		catch (IOException | ClassNotFoundException ex)
+		{
+			ex.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	private void write(String key, Object obj)
+	{
+		File file = getFile(key);
+		file.getParentFile().mkdirs();
+		
+		try
+		{
+			//Several workers may share the cache: write aside, then atomically move in place
+			File tmpFile = File.createTempFile(key, ".tmp", file.getParentFile());
+			
+			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tmpFile));
+			oos.writeObject(obj);
+			oos.close();
+			
+			if (! tmpFile.renameTo(file))
+			{
+				tmpFile.delete();
+			}
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	private File getFile(String key)
+	{
+		return new File(cacheDir + File.separator + key.substring(0, 2) + File.separator + key + ".ser");
+	}
+	
+	/**
+	 * @return a hash of the summaries, which does not depend on the order they have been found in
+	 */
+	public static String digest(SDKSummaries summaries)
+	{
+		List<String> entries = new ArrayList<String>();
+		for (String signature : summaries.sdkIntMethods)
+		{
+			entries.add("M" + signature);
+		}
+		for (String signature : summaries.sdkIntFields)
+		{
+			entries.add("F" + signature);
+		}
+		for (Map.Entry<String, long[]> entry : summaries.guardMethods.entrySet())
+		{
+			entries.add("GM" + entry.getKey() + "=" + entry.getValue()[0] + "/" + entry.getValue()[1]);
+		}
+		for (Map.Entry<String, long[]> entry : summaries.guardFields.entrySet())
+		{
+			entries.add("GF" + entry.getKey() + "=" + entry.getValue()[0] + "/" + entry.getValue()[1]);
+		}
+		Collections.sort(entries);
+		
+		MessageDigest digest = null;
+		try 
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		} 
+		catch (NoSuchAlgorithmException e) 
+		{
+			throw new RuntimeException(e);
+		}
+		
+		for (String entry : entries)
+		{
+			digest.update((entry + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest())
+		{
+			sb.append(String.format("%02x", b));
+		}
+		
+		return sb.substring(0, 16);
+	}
+	
+	public static String sha256(String filePath) throws IOException
+	{
+		MessageDigest digest = null;
+		try 
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		} 
+		catch (NoSuchAlgorithmException e) 
+		{
+			throw new IOException(e);
+		}
+		
+		InputStream is = new FileInputStream(filePath);
+		byte[] buffer = new byte[64 * 1024];
+		int length = 0;
+		while ((length = is.read(buffer)) != -1)
+		{
+			digest.update(buffer, 0, length);
+		}
+		is.close();
+		
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest())
+		{
+			sb.append(String.format("%02x", b));
+		}
+		
+		return sb.toString();
+	}
+}
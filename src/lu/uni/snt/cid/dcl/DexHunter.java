@@ -3,19 +3,29 @@ package lu.uni.snt.cid.dcl;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import lu.uni.snt.cid.Config;
 
 public class DexHunter 
 {	
+	private static final int BUFFER = 64 * 1024;
+	
 	public static void main(String[] args) throws ZipException, IOException
 	{
 		String apkPath = "/Volumes/joey/workspace/piggyback/groundtruth/apps/82ECB0417DF1E874BEF43D0EA5A424A70E95C6689DD1C0229F43164B3719BA75.apk";
@@ -30,6 +40,10 @@ public class DexHunter
 	private String apkName;
 	private Set<String> dexes;
 	
+	public long bytesWritten = 0;
+	public int entriesExtracted = 0;
+	public int entriesSkipped = 0;
+	
 	public DexHunter(String apkPath)
 	{
 		this.apkPath = apkPath;
@@ -42,7 +56,7 @@ public class DexHunter
 	{
 		try 
 		{
-			extractAdditionalDexes(apkPath, apkName + ".unzip");
+			extractAdditionalDexes(apkPath, getTargetDir());
 		} 
 		catch (Exception e) 
 		{
@@ -52,9 +66,112 @@ public class DexHunter
 		return dexes;
 	}
 	
+	/**
+	 * Contrary to hunt(), only the additional DEX files are written to disk (one file each, as Soot needs a path).
+	 * The other entries (AndroidManifest.xml, which AndroidManifest reads from the APK, resources, assets, native libs) are skipped,
+	 * except nested archives, which are streamed to look for further DEX files.
+	 */
+	public Set<String> huntDexesOnly()
+	{
+		try 
+		{
+			ZipFile zip = new ZipFile(new File(apkPath));
+			
+			Enumeration<? extends ZipEntry> zipFileEntries = zip.entries();
+			while (zipFileEntries.hasMoreElements())
+			{
+				ZipEntry entry = zipFileEntries.nextElement();
+				
+				if ("classes.dex".equals(entry.getName()))
+				{
+					//The primary DEX is directly analyzed from the APK
+					entriesSkipped++;
+				}
+				else if (! entry.isDirectory())
+				{
+					InputStream is = new BufferedInputStream(zip.getInputStream(entry), BUFFER);
+					visitEntry(entry.getName(), is, getTargetDir());
+					is.close();
+				}
+			}
+			
+			zip.close();
+		} 
+		catch (Exception e) 
+		{
+			e.printStackTrace();
+		}
+		
+		return dexes;
+	}
+	
+	/**
+	 * @return where the entries of the APK are written, see Kage.clean()
+	 */
+	private String getTargetDir()
+	{
+		return new File(Config.workDir, apkName + ".unzip").getPath();
+	}
+	
+	private void visitEntry(String entryName, InputStream is, String targetDir) throws IOException
+	{
+		if (entryName.contains(".."))
+		{
+			entriesSkipped++;
+		}
+		else if (entryName.endsWith(".dex"))
+		{
+			File destFile = new File(targetDir, entryName);
+			destFile.getParentFile().mkdirs();
+			
+			OutputStream dest = new FileOutputStream(destFile);
+			bytesWritten += IOUtils.copyLarge(is, dest, new byte[BUFFER]);
+			dest.close();
+			
+			entriesExtracted++;
+			dexes.add(destFile.getAbsolutePath());
+		}
+		else if (isZipStream(is))
+		{
+			ZipInputStream zis = new ZipInputStream(is);
+			
+			ZipEntry entry = null;
+			while ((entry = zis.getNextEntry()) != null)
+			{
+				if (! entry.isDirectory())
+				{
+					visitEntry(entry.getName(), new BufferedInputStream(zis, BUFFER), targetDir + File.separator + entryName + ".unzip");
+				}
+			}
+		}
+		else
+		{
+			entriesSkipped++;
+		}
+	}
+	
+	private boolean isZipStream(InputStream is) throws IOException
+	{
+		is.mark(4);
+		DataInputStream in = new DataInputStream(is);
+		
+		int test = 0;
+		try
+		{
+			test = in.readInt();
+		}
+		catch (EOFException ex)
+		{
+			//Less than 4 bytes
+		}
+		
+		is.reset();
+		
+		return test == 0x504b0304;
+	}
+	
 	public void extractAdditionalDexes(String zipFile, String targetDir) throws ZipException, IOException
 	{
-	    int BUFFER = 2048;
 	    ZipFile zip = new ZipFile(new File(zipFile));
 	    
 	    new File(targetDir).mkdir();
@@ -82,6 +199,7 @@ public class DexHunter
 	            while ((currentByte = is.read(data, 0, BUFFER)) != -1) 
 	            {
 	                dest.write(data, 0, currentByte);
+	                bytesWritten += currentByte;
 	            }
 	            dest.flush();
 	            dest.close();
@@ -0,0 +1,317 @@
+package lu.uni.snt.cid.manifest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streaming reader of the uses-sdk element of a binary (AXML) AndroidManifest.xml.
+ *
+ * The chunks are read one by one from the stream (e.g., straight from the APK entry) and the reading stops
+ * at the uses-sdk element: no node tree is built, and only the element names looked at are decoded.
+ * The attributes are recognized by their resource id, or by their name if the manifest has no resource map.
+ * As with ProcessManifest, only integer values are taken (not strings such as preview code names, nor references).
+ */
+public class UsesSdkReader
+{
+	public static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+	//android.R.attr
+	public static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+	public static final int ATTR_TARGET_SDK_VERSION = 0x01010270;
+	public static final int ATTR_MAX_SDK_VERSION = 0x01010271;
+
+	//Chunk types
+	private static final int RES_STRING_POOL_TYPE = 0x0001;
+	private static final int RES_XML_TYPE = 0x0003;
+	private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+	private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+	private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+
+	private static final int UTF8_FLAG = 0x100;
+
+	//Far more than the chunks of any real manifest: a larger declared size means a corrupt or hostile one
+	public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	public int minSdkVersion = -1;
+	public int targetSdkVersion = -1;
+	public int maxSdkVersion = -1;
+
+	//True once the uses-sdk element has been read
+	public boolean found = false;
+
+	//The string pool chunk
+	private ByteBuffer strings = null;
+	private int[] resourceIds = new int[0];
+
+	private byte[] header = new byte[8];
+
+	//Bytes of the manifest read so far, and its size (-1 if unknown)
+	private long position = 0;
+	private long length = -1;
+
+	/**
+	 * Read the manifest of the APK, without extracting it.
+	 *
+	 * @return false if the APK has no manifest or no uses-sdk element
+	 */
+	public boolean read(File apk) throws IOException
+	{
+		ZipFile zip = new ZipFile(apk);
+		try
+		{
+			ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+			if (null == entry)
+			{
+				return false;
+			}
+
+			InputStream is = zip.getInputStream(entry);
+			try
+			{
+				return read(is, entry.getSize());
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		finally
+		{
+			zip.close();
+		}
+	}
+
+	/**
+	 * @return false if there is no uses-sdk element
+	 */
+	public boolean read(InputStream is) throws IOException
+	{
+		return read(is, -1);
+	}
+
+	/**
+	 * @param length the size of the manifest (e.g., of its APK entry), -1 if unknown
+	 * @return false if there is no uses-sdk element
+	 */
+	public boolean read(InputStream is, long length) throws IOException
+	{
+		is = new BufferedInputStream(is);
+
+		if (readFully(is, header, 0, 8) < 8 || RES_XML_TYPE != getShort(header, 0))
+		{
+			throw new IOException("Not a binary XML file");
+		}
+		skip(is, getShort(header, 2) - 8);
+
+		//Otherwise, the size the file declares for itself
+		this.length = length >= 0 ? length : getShort(header, 4) | ((long) getShort(header, 6) << 16);
+		this.position = Math.max(8, getShort(header, 2));
+
+		int depth = 0;
+		ByteBuffer chunk = null;
+		while (null != (chunk = readChunk(is, chunk)))
+		{
+			int type = chunk.getShort(0) & 0xFFFF;
+			int headerSize = chunk.getShort(2) & 0xFFFF;
+			int size = chunk.getInt(4);
+
+			if (RES_STRING_POOL_TYPE == type)
+			{
+				//Kept, so not reused for the next chunks
+				strings = chunk;
+				chunk = null;
+			}
+			else if (RES_XML_RESOURCE_MAP_TYPE == type)
+			{
+				resourceIds = new int[(size - headerSize) / 4];
+				for (int i = 0; i < resourceIds.length; i++)
+				{
+					resourceIds[i] = chunk.getInt(headerSize + 4 * i);
+				}
+			}
+			else if (RES_XML_START_ELEMENT_TYPE == type)
+			{
+				depth++;
+
+				//<manifest><uses-sdk>
+				if (2 == depth && "uses-sdk".equals(getString(chunk.getInt(headerSize + 4))))
+				{
+					readAttributes(chunk, headerSize);
+					found = true;
+					return true;
+				}
+			}
+			else if (RES_XML_END_ELEMENT_TYPE == type)
+			{
+				depth--;
+			}
+		}
+
+		return false;
+	}
+
+	private void readAttributes(ByteBuffer chunk, int headerSize)
+	{
+		int attributeStart = chunk.getShort(headerSize + 8) & 0xFFFF;
+		int attributeSize = chunk.getShort(headerSize + 10) & 0xFFFF;
+		int attributeCount = chunk.getShort(headerSize + 12) & 0xFFFF;
+
+		for (int i = 0; i < attributeCount; i++)
+		{
+			int pos = headerSize + attributeStart + i * attributeSize;
+
+			int name = chunk.getInt(pos + 4);
+			int dataType = chunk.get(pos + 15) & 0xFF;
+			int data = chunk.getInt(pos + 16);
+
+			if (AXmlTypes.TYPE_FIRST_INT != dataType && AXmlTypes.TYPE_INT_HEX != dataType)
+			{
+				continue;
+			}
+
+			int resourceId = name >= 0 && name < resourceIds.length ? resourceIds[name] : 0;
+			if (0 == resourceId)
+			{
+				String attributeName = getString(name);
+				if ("minSdkVersion".equals(attributeName))
+				{
+					resourceId = ATTR_MIN_SDK_VERSION;
+				}
+				else if ("targetSdkVersion".equals(attributeName))
+				{
+					resourceId = ATTR_TARGET_SDK_VERSION;
+				}
+				else if ("maxSdkVersion".equals(attributeName))
+				{
+					resourceId = ATTR_MAX_SDK_VERSION;
+				}
+			}
+
+			if (ATTR_MIN_SDK_VERSION == resourceId)
+			{
+				minSdkVersion = data;
+			}
+			else if (ATTR_TARGET_SDK_VERSION == resourceId)
+			{
+				targetSdkVersion = data;
+			}
+			else if (ATTR_MAX_SDK_VERSION == resourceId)
+			{
+				maxSdkVersion = data;
+			}
+		}
+	}
+
+	/**
+	 * @return string index of the string pool, or null
+	 */
+	private String getString(int index)
+	{
+		if (null == strings || index < 0 || index >= strings.getInt(8))
+		{
+			return null;
+		}
+
+		int headerSize = strings.getShort(2) & 0xFFFF;
+		boolean utf8 = 0 != (strings.getInt(16) & UTF8_FLAG);
+		int pos = strings.getInt(20) + strings.getInt(headerSize + 4 * index);
+
+		if (utf8)
+		{
+			//Length in characters, then in bytes, each on one or two bytes
+			pos += 0 != (strings.get(pos) & 0x80) ? 2 : 1;
+			int length = strings.get(pos++) & 0xFF;
+			if (0 != (length & 0x80))
+			{
+				length = ((length & 0x7F) << 8) | (strings.get(pos++) & 0xFF);
+			}
+
+			return new String(strings.array(), pos, length, StandardCharsets.UTF_8);
+		}
+		else
+		{
+			int length = strings.getShort(pos) & 0xFFFF;
+			pos += 2;
+			if (0 != (length & 0x8000))
+			{
+				length = ((length & 0x7FFF) << 16) | (strings.getShort(pos) & 0xFFFF);
+				pos += 2;
+			}
+
+			return new String(strings.array(), pos, 2 * length, StandardCharsets.UTF_16LE);
+		}
+	}
+
+	/**
+	 * Read the next chunk (header included), reusing buffer if it is large enough.
+	 *
+	 * @return the chunk, or null at the end of the stream
+	 */
+	private ByteBuffer readChunk(InputStream is, ByteBuffer buffer) throws IOException
+	{
+		if (readFully(is, header, 0, 8) < 8)
+		{
+			return null;
+		}
+
+		position += 8;
+
+		long size = getShort(header, 4) | ((long) getShort(header, 6) << 16);
+		if (size < 8 || size > MAX_CHUNK_SIZE || size - 8 > length - position)
+		{
+			throw new IOException("Invalid chunk size " + size);
+		}
+
+		byte[] bytes = null != buffer && buffer.array().length >= size ? buffer.array() : new byte[Math.max((int) size, 1024)];
+		System.arraycopy(header, 0, bytes, 0, 8);
+		if (readFully(is, bytes, 8, (int) size - 8) < size - 8)
+		{
+			throw new EOFException("Truncated chunk");
+		}
+		position += size - 8;
+
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int getShort(byte[] bytes, int pos)
+	{
+		return (bytes[pos] & 0xFF) | ((bytes[pos + 1] & 0xFF) << 8);
+	}
+
+	private static int readFully(InputStream is, byte[] bytes, int offset, int length) throws IOException
+	{
+		int total = 0;
+		while (total < length)
+		{
+			int read = is.read(bytes, offset + total, length - total);
+			if (read < 0)
+			{
+				break;
+			}
+			total += read;
+		}
+
+		return total;
+	}
+
+	private static void skip(InputStream is, long length) throws IOException
+	{
+		while (length > 0)
+		{
+			long skipped = is.skip(length);
+			if (skipped <= 0)
+			{
+				throw new EOFException();
+			}
+			length -= skipped;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package lu.uni.snt.cid.toolkits;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.utils.CommonUtils;
+
+/**
+ * Time and allocation of AndroidAPILifeModel.isAndroidAPI(), with and without the AndroidAPIFilter pre-check,
+ * for Android APIs, app methods (e.g., <com.example.app3.C42$1: void onClick(android.view.View)>)
+ * and unknown methods of Android classes; also checks that both answer the same.
+ *
+ * Usage: AndroidAPIFilterBenchmark [lifetime file] [rounds]
+ */
+public class AndroidAPIFilterBenchmark
+{
+	//Keeps the JIT from dropping the benchmarked calls
+	private static int blackhole = 0;
+
+	public static void main(String[] args)
+	{
+		String path = args.length > 0 ? args[0] : "res/android_api_lifetime.txt";
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		List<String> apis = new ArrayList<String>();
+		List<String> appMethods = new ArrayList<String>();
+		List<String> unknownMethods = new ArrayList<String>();
+		for (String line : CommonUtils.loadFileToList(path))
+		{
+			int pos = line.lastIndexOf(":[");
+			if (pos > 0)
+			{
+				String signature = line.substring(0, pos);
+				int posColon = signature.indexOf(':');
+				int posName = signature.lastIndexOf(' ', signature.indexOf('(')) + 1;
+
+				apis.add(signature);
+				appMethods.add("<com.example.app" + apis.size() % 10 + ".C" + apis.size() + (0 == apis.size() % 2 ? "$1" : "") + signature.substring(posColon));
+				unknownMethods.add(signature.substring(0, posName) + "my" + signature.substring(posName));
+			}
+		}
+		System.out.println("Loaded " + apis.size() + " signatures from " + path);
+
+		AndroidAPILifeModel model = AndroidAPILifeModel.getInstance();
+		model.getFilter();
+
+		String[] names = { "APIs", "app methods", "unknown methods" };
+		List<List<String>> workloads = new ArrayList<List<String>>();
+		workloads.add(apis);
+		workloads.add(appMethods);
+		workloads.add(unknownMethods);
+
+		for (int w = 0; w < workloads.size(); w++)
+		{
+			List<String> signatures = workloads.get(w);
+
+			int mismatches = 0;
+			for (String signature : signatures)
+			{
+				AndroidAPILifeModel.usePreFilter = false;
+				boolean expected = model.isAndroidAPI(signature);
+				AndroidAPILifeModel.usePreFilter = true;
+				if (expected != model.isAndroidAPI(signature))
+				{
+					mismatches++;
+				}
+			}
+
+			for (boolean usePreFilter : new boolean[] { false, true })
+			{
+				AndroidAPILifeModel.usePreFilter = usePreFilter;
+
+				//Warm-up
+				run(model, signatures, rounds);
+				model.getFilter().reset();
+
+				long allocated = CommonUtils.getAllocatedBytes();
+				long start = System.nanoTime();
+				run(model, signatures, rounds);
+				long time = System.nanoTime() - start;
+				allocated = CommonUtils.getAllocatedBytes() - allocated;
+
+				long ops = (long) rounds * signatures.size();
+				System.out.println(String.format("%-16s %-10s %8.1f ns/op %8.1f bytes/op", names[w], usePreFilter ? "filter" : "no filter", (double) time / ops, (double) allocated / ops));
+			}
+
+			System.out.println("  " + model.getFilter() + ", " + mismatches + " mismatches");
+		}
+
+		System.out.println("(" + blackhole + ")");
+	}
+
+	private static void run(AndroidAPILifeModel model, List<String> signatures, int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			for (String signature : signatures)
+			{
+				if (model.isAndroidAPI(signature))
+				{
+					blackhole++;
+				}
+			}
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package lu.uni.snt.cid.toolkits;
 
+import java.io.File;
+import java.io.IOException;
+
 import lu.uni.snt.cid.AndroidAPILifeModel;
 
 public class AndroidAPILifeModelBuilder 
@@ -58,8 +61,47 @@ public class AndroidAPILifeModelBuilder
 		*/
 	}
 	
+	/**
+	 * Serialize the model together with its flattened lifetimes (see AndroidAPILifeModel.flatten()),
+	 * once they are checked against the recursive resolution.
+	 * The compiled model, if any, is compiled again (see AndroidAPILifeModelCompiler): it would otherwise be preferred to the new one.
+	 */
 	public static void build()
 	{
-		AndroidAPILifeModel.getInstance().serialize();
+		AndroidAPILifeModel model = AndroidAPILifeModel.load();
+		
+		long start = System.currentTimeMillis();
+		model.flatten();
+		System.out.println("Flattened " + model.method2ResolvedAPILifes.size() + " API lifetimes in " + (System.currentTimeMillis() - start) + " ms");
+		
+		int mismatches = model.verify();
+		System.out.println("Verification against the recursive resolution: " + mismatches + " mismatches");
+		
+		if (0 == mismatches)
+		{
+			model.serialize();
+			System.out.println();
+			
+			File compiledFile = new File(AndroidAPILifeModel.compiledModelPath);
+			if (compiledFile.exists())
+			{
+				try
+				{
+					mismatches = AndroidAPILifeModelCompiler.compile(model, compiledFile.getPath());
+					System.out.println("Verification of the compiled model: " + mismatches + " mismatches");
+				}
+				catch (IOException ex)
+				{
+					ex.printStackTrace();
+					mismatches = -1;
+				}
+				
+				//Never leave a compiled model older than the serialized one
+				if (0 != mismatches && ! compiledFile.delete())
+				{
+					System.out.println("Cannot delete the outdated " + compiledFile);
+				}
+			}
+		}
 	}
 }
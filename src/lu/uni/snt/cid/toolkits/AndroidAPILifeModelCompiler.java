@@ -0,0 +1,115 @@
+package lu.uni.snt.cid.toolkits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.CompiledAPILifeModel;
+import lu.uni.snt.cid.api.APILife;
+
+/**
+ * Compile the API lifetime model into res/android_api_model.bin (see CompiledAPILifeModel),
+ * check that both forms answer the same, and report the load time and heap usage of each of them.
+ * The compiled model is written aside first, and only replaces the existing one if both forms answer the same.
+ *
+ * Usage: AndroidAPILifeModelCompiler [output path]
+ */
+public class AndroidAPILifeModelCompiler
+{
+	public static void main(String[] args) throws Exception
+	{
+		String path = args.length > 0 ? args[0] : AndroidAPILifeModel.compiledModelPath;
+
+		long heapBefore = usedHeap();
+		long start = System.currentTimeMillis();
+		AndroidAPILifeModel model = AndroidAPILifeModel.load();
+		long loadTime = System.currentTimeMillis() - start;
+		long heapModel = usedHeap() - heapBefore;
+
+		start = System.currentTimeMillis();
+		int mismatches = compile(model, path);
+		System.out.println("Verification: " + mismatches + " mismatches");
+		if (0 != mismatches)
+		{
+			throw new IOException("The compiled model does not match the serialized one, " + path + " is left unchanged");
+		}
+		System.out.println("Compiled " + model.method2APILifes.size() + " APIs into " + path + " (" + new File(path).length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+
+		model = null;
+		heapBefore = usedHeap();
+		start = System.currentTimeMillis();
+		CompiledAPILifeModel compiled = new CompiledAPILifeModel(path);
+		long compiledLoadTime = System.currentTimeMillis() - start;
+		long heapCompiled = usedHeap() - heapBefore;
+
+		System.out.println("Serialized model: loaded in " + loadTime + " ms, " + heapModel / 1024 + " KB of heap");
+		System.out.println("Compiled model: loaded in " + compiledLoadTime + " ms, " + heapCompiled / 1024 + " KB of heap, "
+				+ new File(path).length() / 1024 + " KB mapped (" + compiled.size() + " strings)");
+	}
+
+	/**
+	 * Compile the model into a new file, and move it to path only if it answers the same as the model.
+	 *
+	 * @return the number of mismatches (see verify()), path being left unchanged if there are any
+	 */
+	public static int compile(AndroidAPILifeModel model, String path) throws IOException
+	{
+		//Write into a new file first: the current one may still be mapped
+		File tmpFile = new File(path + ".tmp");
+		CompiledAPILifeModel.compile(model, tmpFile.getPath());
+
+		int mismatches = verify(model, new CompiledAPILifeModel(tmpFile.getPath()));
+		if (0 != mismatches)
+		{
+			tmpFile.delete();
+		}
+		else if (! tmpFile.renameTo(new File(path)))
+		{
+			throw new IOException("Cannot replace " + path);
+		}
+
+		return mismatches;
+	}
+
+	/**
+	 * @return the number of signatures for which the two models disagree
+	 */
+	public static int verify(AndroidAPILifeModel model, CompiledAPILifeModel compiled)
+	{
+		Set<String> signatures = new HashSet<String>(model.method2APILifes.keySet());
+		for (Set<String> methods : model.compactSig2Methods.values())
+		{
+			signatures.addAll(methods);
+		}
+
+		int mismatches = 0;
+		for (String signature : signatures)
+		{
+			APILife expected = model.getLifetime(signature);
+			APILife actual = compiled.getLifetime(signature);
+
+			if (model.isAndroidAPI(signature) != compiled.isAndroidAPI(signature) ||
+				expected.getMinAPILevel() != actual.getMinAPILevel() ||
+				expected.getMaxAPILevel() != actual.getMaxAPILevel())
+			{
+				System.out.println("Mismatch: " + expected + " vs " + actual);
+				mismatches++;
+			}
+		}
+
+		return mismatches;
+	}
+
+	public static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,131 @@
+package lu.uni.snt.cid.toolkits;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import lu.uni.snt.cid.AndroidAPILifeModel;
+import lu.uni.snt.cid.CompiledAPILifeModel;
+import lu.uni.snt.cid.FrameworkBase;
+import lu.uni.snt.cid.api.APILife;
+import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.MethodSignature;
+
+/**
+ * Add one new API level to the existing API lifetime model, instead of rebuilding it (APILifeStudy + AndroidAPILifeModelBuilder):
+ * only the lifetimes and super classes touched by the new level are updated (see AndroidAPILifeModel.update()).
+ * 
+ * The model is read from res/android_api_model.bin if it exists (otherwise from the serialized or the text files),
+ * and written back as the compiled model, the serialized model (if there is one) and the text files
+ * (res/android_api_lifetime.txt, res/android_api_generictype.txt, res/android_api_varargs.txt).
+ * The API file, if given, should also be copied into res/android-apis for later full rebuilds.
+ *
+ * Usage: AndroidAPILifeModelUpdater <API level> <refined API list (android-N.txt of res/android-apis-refinement)> [API file (.txt or .xml, see FrameworkBase)]
+ */
+public class AndroidAPILifeModelUpdater
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: AndroidAPILifeModelUpdater <API level> <refined API list> [API file]");
+			return;
+		}
+		
+		int level = Integer.parseInt(args[0]);
+		Set<String> methods = new HashSet<String>();
+		for (String line : CommonUtils.loadFile(args[1]))
+		{
+			if (! line.trim().isEmpty())
+			{
+				methods.add(line.trim());
+			}
+		}
+		
+		Map<String, Set<String>> superClasses = new HashMap<String, Set<String>>();
+		if (args.length > 2)
+		{
+			FrameworkBase fb = new FrameworkBase();
+			fb.load(args[2]);
+			superClasses = fb.class2SuperClasses;
+		}
+		
+		long start = System.currentTimeMillis();
+		
+		AndroidAPILifeModel model = null;
+		File compiledFile = new File(AndroidAPILifeModel.compiledModelPath);
+		if (compiledFile.exists())
+		{
+			model = AndroidAPILifeModel.decompile(new CompiledAPILifeModel(compiledFile.getPath()));
+		}
+		else
+		{
+			model = AndroidAPILifeModel.load();
+		}
+		System.out.println("Loaded " + model.method2APILifes.size() + " APIs (API level " + model.getLatestAPILevel() + ", revision " + model.getRevision() + ") in " + (System.currentTimeMillis() - start) + " ms");
+		
+		Set<String> newMethods = new HashSet<String>();
+		for (String method : methods)
+		{
+			if (! model.method2APILifes.containsKey(method))
+			{
+				newMethods.add(method);
+			}
+		}
+		
+		long updateStart = System.currentTimeMillis();
+		int resolved = model.update(level, methods, superClasses);
+		System.out.println("Added API level " + level + ": " + methods.size() + " APIs, " + newMethods.size() + " new, " + resolved + " lifetimes resolved again in " + (System.currentTimeMillis() - updateStart) + " ms");
+		
+		if (0 != AndroidAPILifeModelCompiler.compile(model, compiledFile.getPath()))
+		{
+			throw new IOException("The compiled model does not match the updated one, " + compiledFile + " is left unchanged");
+		}
+		System.out.println("Compiled revision " + model.getRevision() + " into " + compiledFile);
+		
+		if (new File(AndroidAPILifeModel.modelPath).exists())
+		{
+			model.serialize();
+			System.out.println();
+		}
+		
+		StringBuilder lifetimes = new StringBuilder();
+		for (APILife apiLife : model.method2APILifes.values())
+		{
+			lifetimes.append(apiLife + "\n");
+		}
+		CommonUtils.writeResultToFile("res/android_api_lifetime.txt", lifetimes.toString());
+		
+		//Same criteria as DumpAPIs_GT_Varargs
+		StringBuilder gt = new StringBuilder();
+		StringBuilder varargs = new StringBuilder();
+		for (String method : newMethods)
+		{
+			MethodSignature ms = new MethodSignature(method);
+			if (ms.containsGenericType())
+			{
+				gt.append(method + "\n");
+			}
+			if (ms.containsVarargs())
+			{
+				varargs.append(method + "\n");
+			}
+		}
+		append("res/android_api_generictype.txt", gt.toString());
+		append("res/android_api_varargs.txt", varargs.toString());
+		
+		System.out.println("Updated in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	private static void append(String path, String content) throws IOException
+	{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(path, true));
+		writer.write(content);
+		writer.close();
+	}
+}
@@ -1,6 +1,7 @@
 package lu.uni.snt.cid.toolkits;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Set;
 
 import lu.uni.snt.cid.FrameworkBase;
@@ -10,7 +11,7 @@ import lu.uni.snt.cid.utils.PathUtils;
 
 public class AndroidAPIRefinement 
 {
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
 		File androidAPIsDir = new File("/Users/li.li/Documents/workspace2016/Mining4U/res/android-apis");
 		for (File file : androidAPIsDir.listFiles())
@@ -0,0 +1,77 @@
+package lu.uni.snt.cid.toolkits;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lu.uni.snt.cid.utils.CommonUtils;
+import lu.uni.snt.cid.utils.MethodSignature;
+
+/**
+ * Time and allocation of MethodSignature parsing + getCompactSignature() over all the signatures of the lifetime file,
+ * for a fresh (lazily parsed) MethodSignature, a fully parsed one (as every MethodSignature used to be), and an interned one.
+ *
+ * Usage: MethodSignatureBenchmark [lifetime file] [rounds]
+ */
+public class MethodSignatureBenchmark
+{
+	//Keeps the JIT from dropping the benchmarked calls
+	private static int blackhole = 0;
+
+	public static void main(String[] args)
+	{
+		String path = args.length > 0 ? args[0] : "res/android_api_lifetime.txt";
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		List<String> signatures = new ArrayList<String>();
+		for (String line : CommonUtils.loadFileToList(path))
+		{
+			int pos = line.lastIndexOf(":[");
+			if (pos > 0)
+			{
+				signatures.add(line.substring(0, pos));
+			}
+		}
+		System.out.println("Loaded " + signatures.size() + " signatures from " + path);
+
+		for (String mode : new String[] { "lazy", "full", "interned" })
+		{
+			//Warm-up
+			run(mode, signatures, rounds);
+
+			long allocated = CommonUtils.getAllocatedBytes();
+			long start = System.nanoTime();
+			run(mode, signatures, rounds);
+			long time = System.nanoTime() - start;
+			allocated = CommonUtils.getAllocatedBytes() - allocated;
+
+			long ops = (long) rounds * signatures.size();
+			System.out.println(String.format("%-9s %8.1f ns/op %8.1f bytes/op", mode, (double) time / ops, (double) allocated / ops));
+		}
+
+		System.out.println(MethodSignature.internedCount() + " interned signatures (" + blackhole + ")");
+	}
+
+	private static void run(String mode, List<String> signatures, int rounds)
+	{
+		for (int r = 0; r < rounds; r++)
+		{
+			for (String signature : signatures)
+			{
+				if ("lazy".equals(mode))
+				{
+					blackhole += new MethodSignature(signature).getCompactSignature().length();
+				}
+				else if ("full".equals(mode))
+				{
+					MethodSignature ms = new MethodSignature(signature);
+					blackhole += ms.getCls().length() + ms.getMethodName().length() + ms.getReturnType().length() + ms.getParameterNumber();
+					blackhole += ms.getCompactSignature().length();
+				}
+				else
+				{
+					blackhole += MethodSignature.of(signature).getCompactSignature().length();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package lu.uni.snt.cid.utils;
+
+/**
+ * A Bloom filter over 64-bit hashes: mightContain() is true for every hash added,
+ * and false for most of the others (about 1% of false positives with 10 bits per entry).
+ */
+public class BloomFilter
+{
+	private long[] bits;
+	//The number of bits is a power of two
+	private int mask;
+	private int hashCount;
+
+	public BloomFilter(int expectedEntries, int bitsPerEntry)
+	{
+		int bitCount = Integer.highestOneBit(Math.max(64, expectedEntries * bitsPerEntry - 1)) << 1;
+		bits = new long[bitCount >>> 6];
+		mask = bitCount - 1;
+		hashCount = Math.max(1, (int) Math.round(bitsPerEntry * Math.log(2)));
+	}
+
+	public void add(long hash)
+	{
+		hash = mix(hash);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++)
+		{
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	public boolean mightContain(long hash)
+	{
+		hash = mix(hash);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++)
+		{
+			int bit = (h1 + i * h2) & mask;
+			if (0 == (bits[bit >>> 6] & (1L << bit)))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	//Finalizer of MurmurHash3, so that weak hashes still spread over all the bits
+	private static long mix(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	public int size()
+	{
+		return mask + 1;
+	}
+}
@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -16,6 +18,20 @@ import java.util.TreeMap;
 
 public class CommonUtils 
 {
+	/**
+	 * @return the bytes allocated so far by the current thread, or -1 if the JVM does not tell
+	 */
+	public static long getAllocatedBytes()
+	{
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return -1;
+	}
+
 	public static boolean isStringEmpty(String str)
 	{
 		boolean isEmpty = false;
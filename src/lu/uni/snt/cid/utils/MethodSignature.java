@@ -1,14 +1,33 @@
 package lu.uni.snt.cid.utils;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A view on a method signature (e.g., <android.app.Activity: void onCreate(android.os.Bundle)>).
+ *
+ * Parsing only locates the separators: the parts are extracted from the signature when first asked for,
+ * and then kept, so that e.g. getCompactSignature() does not pay for the parameters.
+ */
 public class MethodSignature 
 {
+	//Interned signatures (see of()), at most this many per analysis
+	private static final int MAX_INTERNED = 1 << 20;
+	private static ConcurrentHashMap<String, MethodSignature> interned = new ConcurrentHashMap<String, MethodSignature>();
+	
 	private String signature = "";
 	
+	private int posColon;
+	private int posSpaceBeforeMethodName;
+	private int posStartBracket;
+	private int posEndBracket;
+	
 	private String pkg;
 	private String cls;
 	private String methodName;
 	private String returnType;
+	private String compactSignature;
 	
+	private boolean parametersParsed = false;
 	private int parameterNumber;
 	private String[] parameterTypes;
 	
@@ -20,6 +39,42 @@ public class MethodSignature
 		parse(signature);
 	}
 	
+	/**
+	 * @return the MethodSignature of signature, only parsed once per analysis (see clearInterned()).
+	 * As it is shared, the methods modifying it (containsGenericType(), containsGenericReturnType()
+	 * and getSignatureWithoutGPItems()) must not be called on it.
+	 */
+	public static MethodSignature of(String signature)
+	{
+		MethodSignature ms = interned.get(signature);
+		if (null == ms)
+		{
+			if (interned.size() >= MAX_INTERNED)
+			{
+				interned.clear();
+			}
+			
+			ms = new MethodSignature(signature);
+			MethodSignature existing = interned.putIfAbsent(signature, ms);
+			if (null != existing)
+			{
+				ms = existing;
+			}
+		}
+		
+		return ms;
+	}
+	
+	public static void clearInterned()
+	{
+		interned.clear();
+	}
+	
+	public static int internedCount()
+	{
+		return interned.size();
+	}
+	
 	public boolean validateSignature(String signature)
 	{
 		String regex = "<\\w: *\\w *<*\\w>*(.*)>";
@@ -28,20 +83,28 @@ public class MethodSignature
 	
 	public void parse(String signature)
 	{
-		int posColon = signature.indexOf(':');
-		cls = signature.substring(1, posColon);
-
+		this.signature = signature;
 		
-		ClassSignature cs = new ClassSignature(cls);
-		pkg = cs.getPackageName();
+		posColon = signature.indexOf(':');
+		posStartBracket = signature.indexOf('(');
+		posSpaceBeforeMethodName = signature.lastIndexOf(' ', posStartBracket);
+		posEndBracket = signature.lastIndexOf(')');
 		
-		int posStartBracket = signature.indexOf('(');
-		int posSpaceBeforeMethodName = signature.lastIndexOf(' ', posStartBracket);
+		pkg = null;
+		cls = null;
+		methodName = null;
+		returnType = null;
+		compactSignature = null;
+		parametersParsed = false;
+	}
+	
+	private void parseParameters()
+	{
+		if (parametersParsed)
+		{
+			return;
+		}
 		
-		returnType = signature.substring(posColon+2, posSpaceBeforeMethodName);
-		methodName = signature.substring(posSpaceBeforeMethodName+1, posStartBracket);
-
-		int posEndBracket = signature.lastIndexOf(')');
 		String parameters = signature.substring(posStartBracket+1, posEndBracket);
 		
 		if (parameters.isEmpty())
@@ -69,23 +132,27 @@ public class MethodSignature
 				parameterTypes[0] = parameters.trim();
 			}
 		}
+		
+		parametersParsed = true;
 	}
-
+	
 	/**
-	 * 
-	 * Remove Generic programming introduced items, such as <java.lang.String>, <T>, <?>, <? extends Object>, ... 
-	 * 
+	 *
+	 * Remove Generic programming introduced items, such as <java.lang.String>, <T>, <?>, <? extends Object>, ...
+	 *
 	 * @param methodSig
 	 * @return
 	 */
 	public String getSignatureWithoutGPItems()
 	{
-		returnType = returnType.replaceAll("<.+>", "");
+		returnType = getReturnType().replaceAll("<.+>", "");
 		if (returnType.length() == 1)
 		{
 			containsGenericType = true;
 		}
 		
+		parseParameters();
+		
 		String paramStr = "";
 		if (null != parameterTypes)
 		{
@@ -105,7 +172,7 @@ public class MethodSignature
 		
 		paramStr = paramStr.replaceAll("<.+>", "");
 		
-		String sig = "<" + cls + ": " + returnType + " " + methodName + "(" + paramStr + ")>";
+		String sig = "<" + getCls() + ": " + returnType + " " + getMethodName() + "(" + paramStr + ")>";
 		
 		if (containsGenericType)
 		{
@@ -119,25 +186,26 @@ public class MethodSignature
 	
 	public String getCompactSignature()
 	{
-		StringBuilder sb = new StringBuilder();
-		sb.append(cls);
-		sb.append("." + methodName);
-		
-		/*if (null != parameterTypes)
+		if (null == compactSignature)
 		{
-			sb.append(parameterTypes.length);
-		}*/
+			StringBuilder sb = new StringBuilder(posColon + posStartBracket - posSpaceBeforeMethodName);
+			sb.append(signature, 1, posColon);
+			sb.append('.');
+			sb.append(signature, posSpaceBeforeMethodName+1, posStartBracket);
+			
+			compactSignature = sb.toString();
+		}
 		
-		return sb.toString();
+		return compactSignature;
 	}
 	
 	public String getCompactSignatureWithParams()
 	{
 		StringBuilder sb = new StringBuilder();
-		sb.append(cls);
-		sb.append("." + methodName);
+		sb.append(getCls());
+		sb.append("." + getMethodName());
 		
-		for (String param : parameterTypes)
+		for (String param : getParameterTypes())
 		{
 			sb.append("." + param);
 		}
@@ -156,7 +224,7 @@ public class MethodSignature
 	{
 		boolean containsGenericReturnType = false;
 		
-		returnType = returnType.replaceAll("<.+>", "").replaceAll("\\.\\.\\.", "");
+		returnType = getReturnType().replaceAll("<.+>", "").replaceAll("\\.\\.\\.", "");
 		if (returnType.length() == 1)
 		{
 			containsGenericReturnType = true;
@@ -165,16 +233,18 @@ public class MethodSignature
 		return containsGenericReturnType;
 	}
 	
-	public boolean containsGenericType() 
+	public boolean containsGenericType()
 	{
 		boolean containsGenericType = false;
 		
-		returnType = returnType.replaceAll("<.+>", "").replaceAll("\\.\\.\\.", "");
+		returnType = getReturnType().replaceAll("<.+>", "").replaceAll("\\.\\.\\.", "");
 		if (returnType.length() == 1)
 		{
 			containsGenericType = true;
 		}
 		
+		parseParameters();
+		
 		if (null != parameterTypes)
 		{
 			for (int i = 0; i < parameterTypes.length; i++)
@@ -190,32 +260,46 @@ public class MethodSignature
 		
 		return containsGenericType;
 	}
-
+	
 	public String getSignature() {
 		return signature;
 	}
-
+	
 	public String getPkg() {
+		if (null == pkg) {
+			pkg = new ClassSignature(getCls()).getPackageName();
+		}
 		return pkg;
 	}
-
+	
 	public String getCls() {
+		if (null == cls) {
+			cls = signature.substring(1, posColon);
+		}
 		return cls;
 	}
-
+	
 	public String getMethodName() {
+		if (null == methodName) {
+			methodName = signature.substring(posSpaceBeforeMethodName+1, posStartBracket);
+		}
 		return methodName;
 	}
-
+	
 	public String getReturnType() {
+		if (null == returnType) {
+			returnType = signature.substring(posColon+2, posSpaceBeforeMethodName);
+		}
 		return returnType;
 	}
-
+	
 	public int getParameterNumber() {
+		parseParameters();
 		return parameterNumber;
 	}
-
+	
 	public String[] getParameterTypes() {
+		parseParameters();
 		return parameterTypes;
 	}
 }
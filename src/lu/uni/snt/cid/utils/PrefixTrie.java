@@ -0,0 +1,126 @@
+package lu.uni.snt.cid.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A set of string prefixes, compiled into a character trie stored in flat arrays, telling in O(length of the string)
+ * whether a string starts with one of them (same result as calling startsWith() with every prefix).
+ */
+public class PrefixTrie
+{
+	//The children of node n are labels/children[offsets[n] .. offsets[n+1]-1], sorted by label; node 0 is the root
+	private int[] offsets;
+	private char[] labels;
+	private int[] children;
+	//True if a prefix ends at the node
+	private boolean[] terminals;
+
+	private static class Node
+	{
+		TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+		boolean terminal = false;
+	}
+
+	public PrefixTrie(Collection<String> prefixes)
+	{
+		Node root = new Node();
+		for (String prefix : prefixes)
+		{
+			Node node = root;
+			for (int i = 0; i < prefix.length(); i++)
+			{
+				Node child = node.children.get(prefix.charAt(i));
+				if (null == child)
+				{
+					child = new Node();
+					node.children.put(prefix.charAt(i), child);
+				}
+				node = child;
+			}
+			node.terminal = true;
+		}
+
+		//Breadth-first numbering, so that the children of a node are consecutive
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(root);
+		for (int n = 0; n < nodes.size(); n++)
+		{
+			nodes.addAll(nodes.get(n).children.values());
+		}
+
+		offsets = new int[nodes.size() + 1];
+		labels = new char[nodes.size() - 1];
+		children = new int[nodes.size() - 1];
+		terminals = new boolean[nodes.size()];
+
+		int next = 1;
+		for (int n = 0; n < nodes.size(); n++)
+		{
+			Node node = nodes.get(n);
+			terminals[n] = node.terminal;
+
+			offsets[n + 1] = offsets[n] + node.children.size();
+			int edge = offsets[n];
+			for (char label : node.children.keySet())
+			{
+				labels[edge] = label;
+				children[edge++] = next++;
+			}
+		}
+	}
+
+	/**
+	 * @return true if str starts with one of the prefixes
+	 */
+	public boolean matches(String str)
+	{
+		int node = 0;
+		for (int i = 0; i < str.length(); i++)
+		{
+			if (terminals[node])
+			{
+				return true;
+			}
+
+			node = getChild(node, str.charAt(i));
+			if (-1 == node)
+			{
+				return false;
+			}
+		}
+
+		return terminals[node];
+	}
+
+	private int getChild(int node, char label)
+	{
+		int low = offsets[node];
+		int high = offsets[node + 1] - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (labels[mid] < label)
+			{
+				low = mid + 1;
+			}
+			else if (labels[mid] > label)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return children[mid];
+			}
+		}
+
+		return -1;
+	}
+
+	public int size()
+	{
+		return terminals.length;
+	}
+}
@@ -1,79 +1,146 @@
 package lu.uni.snt.cid.utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import soot.Scene;
 import soot.SootClass;
-import soot.util.Chain;
 
 public class SootUtils 
 {
-	public static boolean isSuperClass(SootClass original, SootClass tested)
+	//Subtype index of the application classes, built once per Scene
+	private static Scene indexedScene = null;
+	private static Map<SootClass, Set<String>> class2SuperClassNames = new HashMap<SootClass, Set<String>>();
+	private static Map<String, Set<SootClass>> class2SubClasses = null;
+	
+	/**
+	 * @return true if tested is a super class or an interface (java.lang.Object excepted) of original, directly or not
+	 */
+	public static synchronized boolean isSuperClass(SootClass original, SootClass tested)
+	{
+		if (indexedScene != Scene.v())
+		{
+			reset();
+			indexedScene = Scene.v();
+		}
+		
+		return getSuperClassNames(original).contains(tested.getName());
+	}
+	
+	/**
+	 * @return the application classes extending or implementing sootClass, directly or not
+	 */
+	public static synchronized Set<SootClass> getAllSubClasses(SootClass sootClass)
+	{
+		if (null == class2SubClasses || indexedScene != Scene.v())
+		{
+			buildSubClassIndex();
+		}
+		
+		Set<SootClass> subClasses = class2SubClasses.get(sootClass.getName());
+		
+		return null == subClasses ? Collections.<SootClass>emptySet() : Collections.unmodifiableSet(subClasses);
+	}
+	
+	/**
+	 * Drop the indexes, which refer to the classes of the current Scene.
+	 */
+	public static synchronized void reset()
+	{
+		indexedScene = null;
+		class2SuperClassNames = new HashMap<SootClass, Set<String>>();
+		class2SubClasses = null;
+	}
+	
+	/**
+	 * Index, for every class, the application classes that are its subclasses/implementors (see isSuperClass).
+	 */
+	private static void buildSubClassIndex()
 	{
-		List<SootClass> workList = new ArrayList<SootClass>();
+		reset();
+		indexedScene = Scene.v();
+		class2SubClasses = new HashMap<String, Set<SootClass>>();
 		
-		if (original.hasSuperclass())
+		for (Iterator<SootClass> iter = Scene.v().getApplicationClasses().snapshotIterator(); iter.hasNext(); )
 		{
-			SootClass superCls = original.getSuperclass();
+			SootClass sc = iter.next();
 			
-			if (! superCls.getName().equals("java.lang.Object"))
+			for (String superClsName : getSuperClassNames(sc))
 			{
-				workList.add(original.getSuperclass());
+				Set<SootClass> subClasses = class2SubClasses.get(superClsName);
+				if (null == subClasses)
+				{
+					subClasses = new HashSet<SootClass>();
+					class2SubClasses.put(superClsName, subClasses);
+				}
+				subClasses.add(sc);
 			}
 		}
-		for (Iterator<SootClass> iter = original.getInterfaces().snapshotIterator(); iter.hasNext(); )
+	}
+	
+	/**
+	 * @return the names of all the super classes and interfaces of sootClass, java.lang.Object excepted
+	 */
+	private static Set<String> getSuperClassNames(SootClass sootClass)
+	{
+		Set<String> superClassNames = class2SuperClassNames.get(sootClass);
+		if (null != superClassNames)
 		{
-			SootClass sc = iter.next();
-			workList.add(sc);
+			return superClassNames;
 		}
 		
+		superClassNames = new HashSet<String>();
+		
+		//Walked with a visited set, as the hierarchy of an obfuscated or broken app may be cyclic
+		Set<SootClass> visited = new HashSet<SootClass>();
+		visited.add(sootClass);
+		
+		LinkedList<SootClass> workList = new LinkedList<SootClass>();
+		workList.add(sootClass);
+		
 		while (! workList.isEmpty())
 		{
-			SootClass sc = workList.remove(0);
+			SootClass current = workList.removeFirst();
 			
-			if (sc.getName().equals(tested.getName()))
+			List<SootClass> superTypes = new ArrayList<SootClass>();
+			if (current.hasSuperclass() && ! current.getSuperclass().getName().equals("java.lang.Object"))
 			{
-				return true;
+				superTypes.add(current.getSuperclass());
 			}
-			else
+			for (Iterator<SootClass> iter = current.getInterfaces().snapshotIterator(); iter.hasNext(); )
 			{
-				if (sc.hasSuperclass())
+				superTypes.add(iter.next());
+			}
+			
+			for (SootClass superType : superTypes)
+			{
+				if (visited.add(superType))
 				{
-					if (! sc.getSuperclass().getName().equals("java.lang.Object"))
+					superClassNames.add(superType.getName());
+					
+					Set<String> indexed = class2SuperClassNames.get(superType);
+					if (null != indexed)
 					{
-						workList.add(sc.getSuperclass());
+						superClassNames.addAll(indexed);
+					}
+					else
+					{
+						workList.add(superType);
 					}
-				}
-				
-				for (Iterator<SootClass> iter = sc.getInterfaces().snapshotIterator(); iter.hasNext(); )
-				{
-					workList.add(iter.next());
 				}
 			}
 		}
 		
-		return false;
-	}
-	
-	public static Set<SootClass> getAllSubClasses(SootClass sootClass)
-	{
-		Set<SootClass> sootClasses = new HashSet<SootClass>();
-		
-		Chain<SootClass> applicationClasses = Scene.v().getApplicationClasses();
-		for (Iterator<SootClass> iter = applicationClasses.snapshotIterator(); iter.hasNext(); )
-		{
-			SootClass sc = iter.next();
-			
-			if (isSuperClass(sc, sootClass))
-			{
-				sootClasses.add(sc);
-			}
-		}
+		superClassNames = Collections.unmodifiableSet(superClassNames);
+		class2SuperClassNames.put(sootClass, superClassNames);
 		
-		return sootClasses;
+		return superClassNames;
 	}
 }
@@ -0,0 +1,67 @@
+package lu.uni.snt.cid.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps strings to dense int ids (0, 1, 2, ...), so that they are only stored once
+ * and can be used as array indexes.
+ */
+public class StringInterner
+{
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> strings = new ArrayList<String>();
+
+	/**
+	 * @return the id of str, a new one if str has not been seen yet
+	 */
+	public int intern(String str)
+	{
+		Integer id = ids.get(str);
+		if (null == id)
+		{
+			id = strings.size();
+			ids.put(str, id);
+			strings.add(str);
+		}
+
+		return id;
+	}
+
+	/**
+	 * @return the id of str, or -1 if it has not been interned
+	 */
+	public int getId(String str)
+	{
+		Integer id = ids.get(str);
+
+		return null == id ? -1 : id;
+	}
+
+	public String get(int id)
+	{
+		return strings.get(id);
+	}
+
+	public int size()
+	{
+		return strings.size();
+	}
+
+	/**
+	 * Rough estimation (compact strings, 64-bit JVM with compressed oops) of the heap used by the table.
+	 */
+	public long estimateHeapSize()
+	{
+		long size = 0;
+		for (String str : strings)
+		{
+			//String + byte[] + HashMap entry + Integer + list slot
+			size += 24 + 16 + str.length() + 32 + 16 + 4;
+		}
+
+		return size;
+	}
+}